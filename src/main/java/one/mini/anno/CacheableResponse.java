@@ -0,0 +1,19 @@
+package one.mini.anno;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记 servlet 的输出是确定的（同样的请求得到同样的响应），压缩后的响应可以缓存起来重复使用
+ */
+@Documented
+@Inherited
+@Retention(value = RetentionPolicy.RUNTIME)
+@Target(value = {ElementType.TYPE})
+public @interface CacheableResponse {
+
+}
@@ -0,0 +1,57 @@
+package one.mini.anno;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 编译时由 {@link ReqPathIndexProcessor} 生成的路由索引，打包在 web app 的 jar 里。
+ * 每行一条路由：method、path、servlet 类名，用 tab 分隔；# 开头的行是注释。
+ * 容器启动时只读这个文件，不需要扫描和实例化 servlet
+ */
+public final class ReqPathIndex {
+
+    public static final String LOCATION = "META-INF/mini-puppy/req-path.idx";
+
+    public record Entry(String method, String path, String className) {
+    }
+
+    private ReqPathIndex() {
+    }
+
+    public static void write(Writer writer, List<Entry> entries) throws IOException {
+        writer.write("# generated by " + ReqPathIndexProcessor.class.getName() + ", do not edit\n");
+        for (Entry entry : entries) {
+            writer.write(entry.method() + '\t' + entry.path() + '\t' + entry.className() + '\n');
+        }
+    }
+
+    public static List<Entry> read(URL url) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        URLConnection connection = url.openConnection();
+        // 不缓存 jar 文件，否则关闭 classloader 之后 jar 文件仍然被占用
+        connection.setUseCaches(false);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while (null != (line = reader.readLine())) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 3) {
+                    throw new IOException("invalid route index line " + lineNumber + " in " + url + ": " + line);
+                }
+                entries.add(new Entry(parts[0], parts[1], parts[2]));
+            }
+        }
+        return entries;
+    }
+}
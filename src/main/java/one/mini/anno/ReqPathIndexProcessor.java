@@ -0,0 +1,106 @@
+package one.mini.anno;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 编译时收集标记了 {@link ReqPath} 的 servlet，生成 {@link ReqPathIndex#LOCATION}。
+ * 通过 META-INF/services 注册，依赖 mini-puppy 编译的 web app 自动生成索引。
+ * <p>
+ * 抽象类跳过（{@link ReqPath} 是 @Inherited，由子类注册）；不是 HttpServlet、没有 public 无参构造器的类编译报错
+ */
+@SupportedAnnotationTypes("one.mini.anno.ReqPath")
+public class ReqPathIndexProcessor extends AbstractProcessor {
+
+    private static final String HTTP_SERVLET = "javax.servlet.http.HttpServlet";
+
+    private final List<ReqPathIndex.Entry> entries = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!entries.isEmpty()) {
+                writeIndex();
+            }
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(ReqPath.class)) {
+            if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (!check(type)) {
+                continue;
+            }
+            ReqPath reqPath = type.getAnnotation(ReqPath.class);
+            String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+            for (String path : reqPath.path()) {
+                if (path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0) {
+                    error(type, "@ReqPath path must not contain tab or line break: " + path);
+                    continue;
+                }
+                entries.add(new ReqPathIndex.Entry(reqPath.method(), path, className));
+            }
+        }
+        return false;
+    }
+
+    private boolean check(TypeElement type) {
+        TypeElement servlet = processingEnv.getElementUtils().getTypeElement(HTTP_SERVLET);
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type.asType());
+        if (null != servlet && !processingEnv.getTypeUtils().isSubtype(erased, servlet.asType())) {
+            error(type, "@ReqPath class must extend " + HTTP_SERVLET);
+            return false;
+        }
+        if (!type.getModifiers().contains(Modifier.PUBLIC) || type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "@ReqPath servlet must be a public top-level or static nested class");
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        error(type, "@ReqPath servlet must have a public no-arg constructor");
+        return false;
+    }
+
+    private void writeIndex() {
+        entries.sort(Comparator.comparing(ReqPathIndex.Entry::className).thenComparing(ReqPathIndex.Entry::path));
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ReqPathIndex.LOCATION);
+            try (Writer writer = file.openWriter()) {
+                ReqPathIndex.write(writer, entries);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "write " + ReqPathIndex.LOCATION + " error: " + e);
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,49 @@
+package one.mini.anno;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 和 {@link ReqPath} 一起使用，声明 servlet 在哪里执行。没有标记的 servlet 按 INLINE 处理。
+ * <p>
+ * 会阻塞的 servlet（JDBC、文件 I/O、调用其他服务）不能在 event loop 上执行，否则同一个 event loop 上的所有连接都会被卡住。
+ */
+@Documented
+@Inherited
+@Retention(value = RetentionPolicy.RUNTIME)
+@Target(value = {ElementType.TYPE})
+public @interface ServletExecution {
+
+    Mode value() default Mode.INLINE;
+
+    /**
+     * POOL 模式下线程池的名字，同名的 servlet 共用一个线程池，线程数和队列长度以第一个用到它的 servlet 为准
+     */
+    String pool() default "default";
+
+    int threads() default 16;
+
+    /**
+     * 排队的请求超过这个数量直接返回 503
+     */
+    int queue() default 1024;
+
+    enum Mode {
+        /**
+         * 直接在 event loop 上执行，没有线程切换，只适合不阻塞的快速 servlet。带请求体的请求仍然交给虚拟线程
+         */
+        INLINE,
+        /**
+         * 每个请求一个虚拟线程
+         */
+        VIRTUAL,
+        /**
+         * 在名为 pool 的有界线程池上执行
+         */
+        POOL
+    }
+}
@@ -0,0 +1,65 @@
+package one.mini.classloader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 检查已经停止的 web app 的 classloader 是否被回收。只持有弱引用，GC 之后引用仍然存在说明还有强引用，
+ * 比如 servlet 启动的线程、ThreadLocal、静态缓存或者 context classloader 指向它的线程
+ */
+@Slf4j
+public class PPClassLoaderLeakDetector {
+
+    private record Retired(String name, WeakReference<ClassLoader> ref, long retiredAt) {
+    }
+
+    private final List<Retired> retired = new CopyOnWriteArrayList<>();
+
+    /**
+     * classloader 已经关闭、不应该再被使用时调用
+     */
+    public void watch(String name, ClassLoader classLoader) {
+        retired.add(new Retired(name, new WeakReference<>(classLoader), System.currentTimeMillis()));
+    }
+
+    /**
+     * 触发 GC 并等待最多 timeoutMillis，返回仍然没有被回收的 web app；已经回收的不再检查
+     */
+    public List<String> findLeaks(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            System.gc();
+            retired.removeIf(entry -> {
+                if (null == entry.ref().get()) {
+                    log.info("[server] - classloader of web app {} collected", entry.name());
+                    return true;
+                }
+                return false;
+            });
+            if (retired.isEmpty() || System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<String> leaks = new ArrayList<>();
+        for (Retired entry : retired) {
+            leaks.add(entry.name());
+            log.warn("[server] - classloader of web app {} not collected {}ms after stop, possible leak",
+                    entry.name(), System.currentTimeMillis() - entry.retiredAt());
+        }
+        return leaks;
+    }
+
+    public int pending() {
+        return retired.size();
+    }
+}
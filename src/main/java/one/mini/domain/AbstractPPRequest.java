@@ -1,5 +1,11 @@
 package one.mini.domain;
 
+import one.mini.http.PPHttpHeaders;
+import one.mini.http.PPHttpMethods;
+import one.mini.http.PPHttpParameters;
+import one.mini.http.PPHttpRequestHead;
+import one.mini.servlet.PPRouteMatch;
+
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.Cookie;
@@ -7,13 +13,162 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Map;
 
 public class AbstractPPRequest implements HttpServletRequest {
+
+    /**
+     * 解析器产出的原始请求头，method/uri 等字段都是按需从这里解码
+     */
+    protected final PPHttpRequestHead head;
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final int MAX_FORM_SIZE = 2 * 1024 * 1024;
+
+    private String characterEncoding;
+    private PPHttpParameters parameters;
+    private boolean usingInputStream;
+    private BufferedReader reader;
+    private PPAsyncContext asyncContext;
+    private final PPRouteMatch routeMatch = new PPRouteMatch();
+
+    protected AbstractPPRequest(PPHttpRequestHead head) {
+        this.head = head;
+    }
+
+    public PPHttpRequestHead getHead() {
+        return head;
+    }
+
+    /**
+     * 对象池复用之前清空请求头和按需创建的状态
+     */
+    protected void clear() {
+        head.clear();
+        characterEncoding = null;
+        parameters = null;
+        usingInputStream = false;
+        reader = null;
+        asyncContext = null;
+        routeMatch.clear();
+    }
+
+    /**
+     * 引擎能在 service 返回后保持连接等待异步完成时返回 true
+     */
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    /**
+     * 开始异步处理：service 返回后连接保持打开，不占用线程，在任意线程上写完响应后调用 {@link PPAsyncContext#complete()}。
+     * <p>
+     * 调用 complete 或 fail 之前，这个请求和它的响应都归 servlet 使用，引擎不会回收；之后 servlet 不能再持有它们，
+     * 对象池可能已经把它们交给同一个连接上的下一个请求。超时之后的写操作、complete 和 fail 抛出 IllegalStateException
+     */
+    public PPAsyncContext startAsync() {
+        if (!isAsyncSupported()) {
+            throw new IllegalStateException("async processing is not supported by this engine");
+        }
+        if (null != asyncContext) {
+            throw new IllegalStateException("startAsync() has already been called for this request");
+        }
+        asyncContext = new PPAsyncContext();
+        return asyncContext;
+    }
+
+    public boolean isAsyncStarted() {
+        return null != asyncContext;
+    }
+
+    public PPAsyncContext getAsyncContext() {
+        if (null == asyncContext) {
+            throw new IllegalStateException("startAsync() has not been called for this request");
+        }
+        return asyncContext;
+    }
+
+    /**
+     * 路由的匹配结果，由引擎在查找 servlet 时填写
+     */
+    public PPRouteMatch getRouteMatch() {
+        return routeMatch;
+    }
+
+    /**
+     * 路由 pattern 中 {name} 对应的值，比如 /users/{id} 中的 id，没有时返回 null
+     */
+    public String getPathParameter(String name) {
+        return routeMatch.getPathParameter(name);
+    }
+
+    /**
+     * 请求的 url（不含 query string），等同于 {@link #getRequestURI()}
+     */
+    public String getUrl() {
+        return getRequestURI();
+    }
+
+    /**
+     * 第一次读取参数时才建立索引；表单请求会在这时读取请求体
+     */
+    private PPHttpParameters parameters() {
+        if (null == parameters) {
+            PPHttpParameters params = new PPHttpParameters();
+            params.addQuery(head);
+            if (isFormRequest() && !usingInputStream && null == reader) {
+                readForm(params);
+            }
+            parameters = params;
+        }
+        return parameters;
+    }
+
+    private boolean isFormRequest() {
+        String contentType = getContentType();
+        return null != contentType
+                && contentType.regionMatches(true, 0, FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length())
+                && !PPHttpMethods.GET.equals(getMethod());
+    }
+
+    private void readForm(PPHttpParameters params) {
+        try {
+            ServletInputStream in = body();
+            usingInputStream = true;
+            byte[] form = in.readNBytes(MAX_FORM_SIZE + 1);
+            if (form.length > MAX_FORM_SIZE) {
+                throw new IllegalStateException("form body larger than " + MAX_FORM_SIZE + " bytes");
+            }
+            String encoding = getCharacterEncoding();
+            params.add(form, 0, form.length, null == encoding ? StandardCharsets.UTF_8 : Charset.forName(encoding));
+        } catch (IOException e) {
+            throw new IllegalStateException("read form body error", e);
+        }
+    }
+
+    /**
+     * 请求体，由各个引擎提供，没有请求体时返回空流
+     */
+    protected ServletInputStream body() {
+        return EmptyInputStream.INSTANCE;
+    }
+
+    private static class EmptyInputStream extends ServletInputStream {
+        private static final EmptyInputStream INSTANCE = new EmptyInputStream();
+
+        @Override
+        public int read() {
+            return -1;
+        }
+    }
+
     @Override
     public String getAuthType() {
         return "";
@@ -26,37 +181,37 @@ public class AbstractPPRequest implements HttpServletRequest {
 
     @Override
     public long getDateHeader(String s) {
-        return 0;
+        return head.headers().getDate(s);
     }
 
     @Override
     public String getHeader(String s) {
-        return "";
+        return head.headers().get(s);
     }
 
     @Override
     public Enumeration getHeaders(String s) {
-        return null;
+        return head.headers().values(s);
     }
 
     @Override
     public Enumeration getHeaderNames() {
-        return null;
+        return head.headers().names();
     }
 
     @Override
     public int getIntHeader(String s) {
-        return 0;
+        return head.headers().getInt(s);
     }
 
     @Override
     public String getMethod() {
-        return "";
+        return head.method();
     }
 
     @Override
     public String getPathInfo() {
-        return "";
+        return routeMatch.getPathInfo();
     }
 
     @Override
@@ -66,12 +221,12 @@ public class AbstractPPRequest implements HttpServletRequest {
 
     @Override
     public String getContextPath() {
-        return "";
+        return routeMatch.getContextPath();
     }
 
     @Override
     public String getQueryString() {
-        return "";
+        return head.queryString();
     }
 
     @Override
@@ -96,17 +251,20 @@ public class AbstractPPRequest implements HttpServletRequest {
 
     @Override
     public String getRequestURI() {
-        return "";
+        return head.path();
     }
 
     @Override
     public StringBuffer getRequestURL() {
-        return null;
+        StringBuffer url = new StringBuffer(64).append(getScheme()).append("://");
+        String host = getHeader("Host");
+        url.append(null == host ? getServerName() : host);
+        return url.append(getRequestURI());
     }
 
     @Override
     public String getServletPath() {
-        return "";
+        return routeMatch.getServletPath();
     }
 
     @Override
@@ -151,57 +309,72 @@ public class AbstractPPRequest implements HttpServletRequest {
 
     @Override
     public String getCharacterEncoding() {
-        return "";
+        if (null == characterEncoding) {
+            characterEncoding = PPHttpHeaders.charsetOf(getContentType());
+        }
+        return characterEncoding;
     }
 
     @Override
     public void setCharacterEncoding(String s) throws UnsupportedEncodingException {
-
+        if (!Charset.isSupported(s)) {
+            throw new UnsupportedEncodingException(s);
+        }
+        this.characterEncoding = s;
     }
 
     @Override
     public int getContentLength() {
-        return 0;
+        try {
+            long length = head.headers().getLong("Content-Length");
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     @Override
     public String getContentType() {
-        return "";
+        return head.headers().get("Content-Type");
     }
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
-        return null;
+        if (null != reader) {
+            throw new IllegalStateException("getReader() has already been called for this request");
+        }
+        usingInputStream = true;
+        return body();
     }
 
     @Override
     public String getParameter(String s) {
-        return "";
+        return parameters().get(s);
     }
 
     @Override
     public Enumeration getParameterNames() {
-        return null;
+        return parameters().names();
     }
 
     @Override
     public String[] getParameterValues(String s) {
-        return new String[0];
+        return parameters().getAll(s);
     }
 
     @Override
     public Map getParameterMap() {
-        return Map.of();
+        return parameters().asMap();
     }
 
     @Override
     public String getProtocol() {
-        return "";
+        return head.protocol();
     }
 
     @Override
     public String getScheme() {
-        return "";
+        return "http";
     }
 
     @Override
@@ -216,7 +389,15 @@ public class AbstractPPRequest implements HttpServletRequest {
 
     @Override
     public BufferedReader getReader() throws IOException {
-        return null;
+        if (null == reader) {
+            if (usingInputStream) {
+                throw new IllegalStateException("getInputStream() has already been called for this request");
+            }
+            String encoding = getCharacterEncoding();
+            Charset charset = null == encoding ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+            reader = new BufferedReader(new InputStreamReader(body(), charset));
+        }
+        return reader;
     }
 
     @Override
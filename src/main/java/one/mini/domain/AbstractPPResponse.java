@@ -1,13 +1,191 @@
 package one.mini.domain;
 
+import one.mini.http.PPHttpDates;
+import one.mini.http.PPHttpHeaders;
+import one.mini.http.PPHttpResponseHead;
+import one.mini.http.PPHttpStatus;
+
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
-public class AbstractPPResponse implements HttpServletResponse {
+/**
+ * 响应的公共部分：状态码、响应头、getOutputStream/getWriter。
+ * <p>
+ * servlet 写的 body 先放进子类的缓冲区（大小见 {@link #setBufferSize(int)}），服务器在 servlet 返回后调用 {@link #finish()}。
+ * body 放得下时这时才提交，自动补上 Content-Length，响应头和 body 一次写出去；
+ * 缓冲区满了或者 servlet 调用 flushBuffer 时提前提交，没有 Content-Length 的改用 chunked 编码分段发送。
+ */
+public abstract class AbstractPPResponse implements HttpServletResponse {
+
+    /**
+     * 页面基本都是中文，没有指定时默认 UTF-8
+     */
+    private static final String DEFAULT_CHARACTER_ENCODING = "UTF-8";
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    protected final PPHttpResponseHead head = new PPHttpResponseHead();
+    protected volatile boolean committed;
+    /**
+     * 整个响应（包括 chunked 的结束块）都已经写出
+     */
+    protected boolean finished;
+    /**
+     * 异步请求超时后引擎不再使用这个响应，servlet 之后的写操作抛出 IllegalStateException
+     */
+    private volatile boolean abandoned;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    /**
+     * finish 时刷 writer 不算 servlet 主动 flush，不能因此提前提交
+     */
+    private boolean flushingWriter;
+
+    private String contentType;
+    private String characterEncoding;
+    private Locale locale;
+
+    private ServletOutputStream outputStream;
+    private boolean usingOutputStream;
+    private PrintWriter writer;
+    private boolean usingWriter;
+    /**
+     * 上一次使用的 writer 和它的编码，对象复用时编码相同就继续用，省掉 writer 里 8KB 的编码缓冲
+     */
+    private PrintWriter recycledWriter;
+    private Charset recycledWriterCharset;
+    private Charset writerCharset;
+
+    public PPHttpResponseHead getHead() {
+        return head;
+    }
+
+    /**
+     * 对象池复用之前恢复到初始状态，包括连接相关的设置；body 缓冲由子类自己处理
+     */
+    protected void clear() {
+        // finish 时 writer 已经刷空，没有出过错的可以留给下一个请求。checkError 会 flush，要在 finished 复位之前调用；
+        // 被放弃的响应 writer 里可能还有没写出的字符，不再复用
+        if (null != writer && !abandoned && !writer.checkError()) {
+            recycledWriter = writer;
+            recycledWriterCharset = writerCharset;
+        }
+        head.clear();
+        head.setKeepAlive(true);
+        head.setHttp10(false);
+        head.setAcceptEncoding(null);
+        head.setCacheKey(null);
+        committed = false;
+        finished = false;
+        abandoned = false;
+        bufferSize = DEFAULT_BUFFER_SIZE;
+        flushingWriter = false;
+        contentType = null;
+        characterEncoding = null;
+        locale = null;
+        usingOutputStream = false;
+        writer = null;
+        writerCharset = null;
+        usingWriter = false;
+    }
+
+    /**
+     * 异步请求超时时由引擎调用，之后不再读写这个响应的缓冲区；返回放弃时响应是否已经提交
+     */
+    public boolean abandon() {
+        abandoned = true;
+        return committed;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * servlet 的写操作之前检查，引擎已经放弃的响应不能再写
+     */
+    protected void ensureNotAbandoned() {
+        if (abandoned) {
+            throw new IllegalStateException("async request timed out, response is no longer usable");
+        }
+    }
+
+    /**
+     * 追加 body 到缓冲区
+     */
+    protected abstract void writeBody(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * 缓冲区中 body 的长度
+     */
+    protected abstract int bodyLength();
+
+    /**
+     * 丢掉缓冲区中的 body
+     */
+    protected abstract void resetBody();
+
+    /**
+     * 把缓冲区中的 body 写给客户端并清空缓冲区，只 flush 一次。
+     * writeHead 为 true 时先写响应头；chunked 时缓冲区的内容作为一个 chunk，last 为 true 时再写结束块
+     */
+    protected abstract void flush(boolean writeHead, boolean last) throws IOException;
+
+    /**
+     * servlet 处理完成后由服务器调用，已经写完的响应不会重复发送
+     */
+    public void finish() throws IOException {
+        if (null != writer) {
+            flushingWriter = true;
+            try {
+                writer.flush();
+            } finally {
+                flushingWriter = false;
+            }
+        }
+        if (finished) {
+            return;
+        }
+        flushBody(true);
+    }
+
+    private void flushBody(boolean last) throws IOException {
+        boolean writeHead = !committed;
+        if (writeHead) {
+            prepareHead(last);
+            committed = true;
+        }
+        finished = last;
+        flush(writeHead, last);
+    }
+
+    /**
+     * 决定 body 的分帧方式：明确设置了 Content-Length 的直接用；最后一次写出时 body 全在缓冲区里，
+     * 长度就是 Content-Length；否则 HTTP/1.1 用 chunked，HTTP/1.0 只能写完关闭连接
+     */
+    private void prepareHead(boolean last) {
+        head.setContentType(getContentType());
+        if (!PPHttpStatus.hasBody(head.getStatus())) {
+            head.setContentLength(-1);
+            resetBody();
+        } else if (head.getContentLength() >= 0) {
+            return;
+        } else if (last) {
+            head.setContentLength(bodyLength());
+        } else if (head.isHttp10()) {
+            head.setKeepAlive(false);
+        } else {
+            head.setChunked(true);
+        }
+    }
+
     @Override
     public void addCookie(Cookie cookie) {
 
@@ -15,156 +193,329 @@ public class AbstractPPResponse implements HttpServletResponse {
 
     @Override
     public boolean containsHeader(String s) {
-        return false;
+        if ("Content-Type".equalsIgnoreCase(s)) {
+            return null != contentType;
+        }
+        if ("Content-Length".equalsIgnoreCase(s)) {
+            return head.getContentLength() >= 0;
+        }
+        return head.contains(s);
     }
 
     @Override
     public String encodeURL(String s) {
-        return "";
+        return s;
     }
 
     @Override
     public String encodeRedirectURL(String s) {
-        return "";
+        return s;
     }
 
     @Override
     public String encodeUrl(String s) {
-        return "";
+        return s;
     }
 
     @Override
     public String encodeRedirectUrl(String s) {
-        return "";
+        return s;
     }
 
     @Override
     public void sendError(int i, String s) throws IOException {
-
+        ensureNotAbandoned();
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        resetBuffer();
+        head.setContentLength(-1);
+        setStatus(i);
+        setContentType("text/html");
+        String message = null == s ? PPHttpStatus.reason(i) : s;
+        byte[] body = ("<h1>" + i + " " + message + "</h1>").getBytes(StandardCharsets.UTF_8);
+        writeBody(body, 0, body.length);
+        finish();
     }
 
     @Override
     public void sendError(int i) throws IOException {
-
+        sendError(i, null);
     }
 
     @Override
     public void sendRedirect(String s) throws IOException {
-
+        ensureNotAbandoned();
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        resetBuffer();
+        setStatus(SC_FOUND);
+        setHeader("Location", s);
+        finish();
     }
 
     @Override
     public void setDateHeader(String s, long l) {
-
+        setHeader(s, PPHttpDates.format(l));
     }
 
     @Override
     public void addDateHeader(String s, long l) {
-
+        addHeader(s, PPHttpDates.format(l));
     }
 
     @Override
     public void setHeader(String s, String s1) {
-
+        if (committed || specialHeader(s, s1)) {
+            return;
+        }
+        head.set(s, s1);
     }
 
     @Override
     public void addHeader(String s, String s1) {
-
+        if (committed || specialHeader(s, s1)) {
+            return;
+        }
+        head.add(s, s1);
+    }
+
+    /**
+     * Content-Type、Content-Length 和 Connection 不放在普通响应头里，返回 true 表示已经处理
+     */
+    private boolean specialHeader(String name, String value) {
+        if ("Content-Type".equalsIgnoreCase(name)) {
+            setContentType(value);
+            return true;
+        }
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            head.setContentLength(null == value ? -1 : Long.parseLong(value.trim()));
+            return true;
+        }
+        if ("Connection".equalsIgnoreCase(name)) {
+            if (null != value && value.toLowerCase(Locale.ROOT).contains("close")) {
+                head.setKeepAlive(false);
+            }
+            return true;
+        }
+        return false;
     }
 
     @Override
     public void setIntHeader(String s, int i) {
-
+        setHeader(s, Integer.toString(i));
     }
 
     @Override
     public void addIntHeader(String s, int i) {
-
+        addHeader(s, Integer.toString(i));
     }
 
     @Override
     public void setStatus(int i) {
-
+        if (!committed) {
+            head.setStatus(i);
+        }
     }
 
     @Override
     public void setStatus(int i, String s) {
+        if (!committed) {
+            head.setStatus(i, s);
+        }
+    }
 
+    public int getStatus() {
+        return head.getStatus();
     }
 
     @Override
     public String getCharacterEncoding() {
-        return "";
+        return null == characterEncoding ? DEFAULT_CHARACTER_ENCODING : characterEncoding;
     }
 
+    /**
+     * 用了 getWriter 或者明确指定过编码时，Content-Type 带上 charset
+     */
     @Override
     public String getContentType() {
-        return "";
+        if (null == contentType) {
+            return null;
+        }
+        if ((usingWriter || null != characterEncoding) && null == PPHttpHeaders.charsetOf(contentType)) {
+            return contentType + ";charset=" + getCharacterEncoding();
+        }
+        return contentType;
     }
 
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
-        return null;
+        if (usingWriter) {
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
+        usingOutputStream = true;
+        return bodyStream();
     }
 
     @Override
     public PrintWriter getWriter() throws IOException {
-        return null;
+        if (usingOutputStream) {
+            throw new IllegalStateException("getOutputStream() has already been called for this response");
+        }
+        if (null == writer) {
+            usingWriter = true;
+            Charset charset = Charset.forName(getCharacterEncoding());
+            writer = charset.equals(recycledWriterCharset)
+                    ? recycledWriter
+                    : new PrintWriter(new OutputStreamWriter(bodyStream(), charset), false);
+            writerCharset = charset;
+            recycledWriter = null;
+            recycledWriterCharset = null;
+        }
+        return writer;
+    }
+
+    private ServletOutputStream bodyStream() {
+        if (null == outputStream) {
+            outputStream = new BodyOutputStream();
+        }
+        return outputStream;
     }
 
     @Override
     public void setCharacterEncoding(String s) {
-
+        if (committed || usingWriter) {
+            return;
+        }
+        characterEncoding = s;
     }
 
     @Override
     public void setContentLength(int i) {
-
+        if (!committed) {
+            head.setContentLength(i);
+        }
     }
 
     @Override
     public void setContentType(String s) {
-
+        if (committed) {
+            return;
+        }
+        contentType = s;
+        String charset = PPHttpHeaders.charsetOf(s);
+        if (null != charset && !usingWriter) {
+            characterEncoding = charset;
+        }
     }
 
     @Override
     public void setBufferSize(int i) {
-
+        if (committed || bodyLength() > 0) {
+            throw new IllegalStateException("content has already been written to the response");
+        }
+        bufferSize = Math.max(i, 0);
     }
 
     @Override
     public int getBufferSize() {
-        return 0;
+        return bufferSize;
     }
 
+    /**
+     * 提交响应，把缓冲区里已有的内容写出去；之后写的内容满一个缓冲区发送一次
+     */
     @Override
     public void flushBuffer() throws IOException {
-
+        ensureNotAbandoned();
+        if (null != writer) {
+            flushingWriter = true;
+            try {
+                writer.flush();
+            } finally {
+                flushingWriter = false;
+            }
+        }
+        if (!finished) {
+            flushBody(false);
+        }
     }
 
     @Override
     public void resetBuffer() {
-
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        if (null != writer) {
+            // 丢掉 writer 里还没编码的字符，下次 getWriter 重新创建
+            writer = null;
+        }
+        resetBody();
     }
 
     @Override
     public boolean isCommitted() {
-        return false;
+        return committed;
     }
 
     @Override
     public void reset() {
-
+        resetBuffer();
+        head.clear();
+        contentType = null;
+        characterEncoding = null;
+        usingOutputStream = false;
+        usingWriter = false;
     }
 
     @Override
     public void setLocale(Locale locale) {
-
+        if (!committed) {
+            this.locale = locale;
+        }
     }
 
     @Override
     public Locale getLocale() {
-        return null;
+        return null == locale ? Locale.getDefault() : locale;
+    }
+
+    private void append(byte[] b, int off, int len) throws IOException {
+        ensureNotAbandoned();
+        if (finished) {
+            throw new IOException("response already finished");
+        }
+        writeBody(b, off, len);
+        if (bodyLength() >= bufferSize) {
+            flushBody(false);
+        }
+    }
+
+    /**
+     * getOutputStream/getWriter 写的字节都进到子类的缓冲区，缓冲区满了才写给客户端
+     */
+    private class BodyOutputStream extends ServletOutputStream {
+
+        private final byte[] one = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            one[0] = (byte) b;
+            append(one, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            append(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureNotAbandoned();
+            if (!flushingWriter && !finished) {
+                flushBody(false);
+            }
+        }
     }
 }
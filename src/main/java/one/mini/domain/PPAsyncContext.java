@@ -0,0 +1,188 @@
+package one.mini.domain;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 异步处理的句柄，由 {@link AbstractPPRequest#startAsync()} 创建。
+ * <p>
+ * servlet 拿到句柄后可以直接从 service 返回，之后在任意线程上写响应，写完调用 {@link #complete()}。
+ * 这期间引擎不占用任何线程，只保持连接打开。超过 timeout 还没有完成时先调用 onTimeout 注册的回调，
+ * 回调里也没有完成的，引擎按失败处理：响应还没提交时返回 500，否则关闭连接。
+ * <p>
+ * complete 可能发生在 service 返回之前，所以要等 complete 和引擎接管（{@link #dispatched(Consumer)}）都发生之后才结束请求。
+ * <p>
+ * 生命周期：请求和响应对象在 complete/fail 之前都归 servlet 使用，引擎不会回收它们。
+ * 超时后引擎放弃这个响应（之后的写操作抛出 IllegalStateException），另外发送 500 并关闭连接，
+ * 但请求和响应仍然要等 servlet 调用 complete 或 fail 之后才放回对象池（见 {@link #whenReleased(Runnable)}）；
+ * 超时之后的 complete 和 fail 同样抛出 IllegalStateException。
+ */
+@Slf4j
+public class PPAsyncContext {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * 所有引擎共用的超时定时器，只做检查和回调，不能在回调里阻塞
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("pp-async-timer").daemon(true).factory());
+
+    private static final int ACTIVE = 0;
+    private static final int COMPLETED = 1;
+    private static final int TIMED_OUT = 2;
+
+    private final AtomicInteger state = new AtomicInteger(ACTIVE);
+    /**
+     * complete 和 dispatched 各减一次，减到 0 时结束请求
+     */
+    private final AtomicInteger pending = new AtomicInteger(2);
+    /**
+     * servlet 已经调用过 complete 或 fail，不会再使用请求和响应
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+    /**
+     * servlet 释放和引擎登记回收各减一次，减到 0 时执行 onReleased
+     */
+    private final AtomicInteger releasing = new AtomicInteger(2);
+    private volatile Runnable onReleased;
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private volatile Runnable timeoutListener;
+    private volatile Throwable failure;
+    private volatile Consumer<Throwable> onDone;
+    private volatile ScheduledFuture<?> timeout;
+
+    PPAsyncContext() {
+    }
+
+    /**
+     * 从 service 返回之前设置才生效，小于等于 0 表示不超时
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getTimeout() {
+        return timeoutMillis;
+    }
+
+    /**
+     * 超时回调，在定时器线程上执行，可以在里面写一个默认响应后 complete
+     */
+    public void onTimeout(Runnable listener) {
+        this.timeoutListener = listener;
+    }
+
+    /**
+     * 响应已经写完，只有第一次调用有效；已经超时的抛出 IllegalStateException
+     */
+    public void complete() {
+        release(null);
+    }
+
+    /**
+     * 异步处理失败，按 servlet 抛出异常处理；已经超时的抛出 IllegalStateException
+     */
+    public void fail(Throwable cause) {
+        release(null == cause ? new IllegalStateException("async request failed") : cause);
+    }
+
+    public boolean isCompleted() {
+        return state.get() != ACTIVE;
+    }
+
+    /**
+     * 超时之后引擎已经放弃了这个请求
+     */
+    public boolean isTimedOut() {
+        return state.get() == TIMED_OUT;
+    }
+
+    /**
+     * servlet 已经调用过 complete 或 fail
+     */
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * 引擎在请求结束后调用：servlet 已经释放时立即在当前线程执行 action，
+     * 否则在 servlet 调用 complete 或 fail 的线程上执行，只执行一次
+     */
+    public void whenReleased(Runnable action) {
+        this.onReleased = action;
+        arriveReleased();
+    }
+
+    /**
+     * 引擎在 service 返回后调用，onDone 在请求结束时执行一次，参数是失败的原因，成功时为 null
+     */
+    public void dispatched(Consumer<Throwable> onDone) {
+        this.onDone = onDone;
+        long millis = timeoutMillis;
+        if (millis > 0 && !isCompleted()) {
+            timeout = TIMER.schedule(this::timeout, millis, TimeUnit.MILLISECONDS);
+        }
+        arrive();
+    }
+
+    private void release(Throwable cause) {
+        if (released.compareAndSet(false, true)) {
+            arriveReleased();
+        }
+        if (!finish(cause, COMPLETED) && isTimedOut()) {
+            throw new IllegalStateException("async request already timed out after " + timeoutMillis + " ms");
+        }
+    }
+
+    /**
+     * 只有第一次调用生效，返回是否由这次调用结束了请求
+     */
+    private boolean finish(Throwable cause, int result) {
+        if (!state.compareAndSet(ACTIVE, result)) {
+            return false;
+        }
+        failure = cause;
+        ScheduledFuture<?> scheduled = timeout;
+        if (null != scheduled) {
+            scheduled.cancel(false);
+        }
+        arrive();
+        return true;
+    }
+
+    private void arrive() {
+        if (pending.decrementAndGet() == 0) {
+            onDone.accept(failure);
+        }
+    }
+
+    private void arriveReleased() {
+        if (releasing.decrementAndGet() == 0) {
+            onReleased.run();
+        }
+    }
+
+    private void timeout() {
+        if (isCompleted()) {
+            return;
+        }
+        Runnable listener = timeoutListener;
+        if (null != listener) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                log.error("[server] - async timeout listener error", e);
+            }
+        }
+        finish(new TimeoutException("async request not completed in " + timeoutMillis + " ms"), TIMED_OUT);
+    }
+}
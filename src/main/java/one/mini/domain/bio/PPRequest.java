@@ -1,41 +1,70 @@
 package one.mini.domain.bio;
 
 import lombok.EqualsAndHashCode;
-import lombok.Getter;
 import one.mini.domain.AbstractPPRequest;
+import one.mini.http.PPHttpBodyDecoder;
+import one.mini.http.PPHttpRequestHead;
+import one.mini.http.PPHttpRequestParser;
 
+import javax.servlet.ServletInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 @EqualsAndHashCode(callSuper = true)
 public class PPRequest extends AbstractPPRequest {
 
-    @Getter
-    private String url;
-    @Getter
-    private String method;
+    public static final int DEFAULT_READ_BUFFER_SIZE = 4096;
+
     private final InputStream inputStream;
+    /**
+     * 连接上的读缓冲区（读模式），解析完请求头后剩下的字节属于请求体或下一个请求
+     */
+    private final ByteBuffer readBuffer;
+    private PPRequestInputStream body;
+
+    public PPRequest(InputStream inputStream) throws IOException {
+        this(inputStream, ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE).flip());
+    }
 
-    public PPRequest(InputStream inputStream) {
+    public PPRequest(InputStream inputStream, ByteBuffer readBuffer) throws IOException {
+        super(new PPHttpRequestHead());
         this.inputStream = inputStream;
+        this.readBuffer = readBuffer;
         this.readFromStream(inputStream);
     }
 
-    public void readFromStream(InputStream inputStream) {
-        byte[] bytes = new byte[1024];
-        try {
-            int len = -1;
-            while ((len = inputStream.read(bytes)) != -1) {
-                String request = new String(bytes, 0, len);
-                if (request.contains("\n")) {
-                    String[] requestLines = request.split("\r\n");
-                    String[] lines = requestLines[0].split(" ");
-                    method = lines[0];
-                    url = lines[1];
-                    break;
-                }
+    public void readFromStream(InputStream inputStream) throws IOException {
+        PPHttpRequestParser parser = new PPHttpRequestParser();
+        parser.reset(head);
+        while (!readBuffer.hasRemaining() || !parser.parse(readBuffer)) {
+            readBuffer.compact();
+            int len = inputStream.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+            if (len == -1) {
+                readBuffer.flip();
+                throw new EOFException("connection closed before request head completed");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            readBuffer.position(readBuffer.position() + len);
+            readBuffer.flip();
+        }
+        PPHttpBodyDecoder decoder = PPHttpBodyDecoder.of(head);
+        if (null != decoder) {
+            body = new PPRequestInputStream(inputStream, readBuffer, decoder);
+        }
+    }
+
+    @Override
+    protected ServletInputStream body() {
+        return null == body ? super.body() : body;
+    }
+
+    /**
+     * servlet 处理完成后调用，跳过没有读完的请求体
+     */
+    public void discardBody() throws IOException {
+        if (null != body) {
+            body.drain();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package one.mini.domain.bio;
+
+import one.mini.http.PPHttpBodyDecoder;
+
+import javax.servlet.ServletInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * BIO 连接上的请求体输入流：先读连接读缓冲区里剩下的字节，再直接读 socket。
+ * 分帧交给 {@link PPHttpBodyDecoder}，读到 body 结尾返回 -1，不会越界读到下一个请求。
+ */
+public class PPRequestInputStream extends ServletInputStream {
+
+    private final InputStream in;
+    private final ByteBuffer readBuffer;
+    private final PPHttpBodyDecoder decoder;
+
+    public PPRequestInputStream(InputStream in, ByteBuffer readBuffer, PPHttpBodyDecoder decoder) {
+        this.in = in;
+        this.readBuffer = readBuffer;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!decoder.isDone()) {
+            long available = decoder.available();
+            if (available == 0) {
+                if (!readBuffer.hasRemaining()) {
+                    fill();
+                }
+                decoder.feed(readBuffer.get());
+                continue;
+            }
+            int n = (int) Math.min(available, len);
+            if (readBuffer.hasRemaining()) {
+                n = Math.min(n, readBuffer.remaining());
+                readBuffer.get(b, off, n);
+            } else {
+                // 缓冲区读空之后大块数据直接从 socket 读到调用方的数组里
+                n = in.read(b, off, n);
+                if (n == -1) {
+                    throw new EOFException("connection closed before request body completed");
+                }
+            }
+            decoder.consumed(n);
+            return n;
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(decoder.available(), readBuffer.remaining());
+    }
+
+    /**
+     * 跳过没有读完的 body，连接上的下一个请求才能被正确解析
+     */
+    public void drain() throws IOException {
+        while (!decoder.isDone()) {
+            long available = decoder.available();
+            if (!readBuffer.hasRemaining()) {
+                fill();
+            }
+            if (available == 0) {
+                decoder.feed(readBuffer.get());
+            } else {
+                int n = (int) Math.min(available, readBuffer.remaining());
+                readBuffer.position(readBuffer.position() + n);
+                decoder.consumed(n);
+            }
+        }
+    }
+
+    private void fill() throws IOException {
+        readBuffer.clear();
+        int n = in.read(readBuffer.array(), readBuffer.arrayOffset(), readBuffer.capacity());
+        if (n == -1) {
+            readBuffer.limit(0);
+            throw new EOFException("connection closed before request body completed");
+        }
+        readBuffer.limit(n);
+    }
+}
@@ -1,36 +1,144 @@
 package one.mini.domain.bio;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import lombok.EqualsAndHashCode;
 import one.mini.domain.AbstractPPResponse;
+import one.mini.http.PPConstantResponse;
+import one.mini.http.PPHttpCommonHeaders;
+import one.mini.http.PPHttpCompressor;
+import one.mini.http.PPHttpResponseHead;
+import one.mini.http.PPStaticFile;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
 
 @EqualsAndHashCode(callSuper = true)
 public class PPResponse extends AbstractPPResponse {
 
     private final OutputStream outputStream;
+    /**
+     * 连接上共用的压缩器，为 null 时不压缩
+     */
+    private final PPHttpCompressor compressor;
+    private ByteBuf body = Unpooled.buffer(256);
 
     public PPResponse(OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    public PPResponse(OutputStream outputStream, PPHttpCompressor compressor) {
         this.outputStream = outputStream;
+        this.compressor = compressor;
+    }
+
+    @Override
+    protected void writeBody(byte[] b, int off, int len) {
+        body.writeBytes(b, off, len);
+    }
+
+    @Override
+    protected int bodyLength() {
+        return body.readableBytes();
     }
 
-    public void write(byte[] bytes) {
-        try {
-            outputStream.write(bytes);
-            outputStream.flush();
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    protected void resetBody() {
+        body.clear();
+    }
+
+    /**
+     * outputStream 是带缓冲的 socket 输出流，响应头、chunk 长度行和 body 先进缓冲，最后只 flush 一次
+     */
+    @Override
+    protected void flush(boolean writeHead, boolean last) throws IOException {
+        ByteBuf content = body;
+        if (null != compressor && (writeHead ? compressor.begin(head, content, last) : compressor.isActive())) {
+            // 压缩后的内容替换原来的 body，原来的 buffer 已经被压缩器释放
+            content = compressor.encode(head, content, last, UnpooledByteBufAllocator.DEFAULT);
+            body = Unpooled.buffer(256);
+        }
+        if (writeHead) {
+            ByteBuf out = Unpooled.buffer(256);
+            head.encode(out);
+            write(out);
+        }
+        if (content.isReadable()) {
+            if (head.isChunked()) {
+                ByteBuf size = Unpooled.buffer(16);
+                PPHttpResponseHead.writeChunkSize(size, content.readableBytes());
+                write(size);
+                write(content);
+                outputStream.write(PPHttpCommonHeaders.CRLF);
+            } else {
+                write(content);
+            }
+        }
+        if (content != body) {
+            content.release();
         }
+        body.clear();
+        if (last && head.isChunked()) {
+            outputStream.write(PPHttpCommonHeaders.LAST_CHUNK);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * 直接发送预先编码好的固定响应
+     */
+    public void send(PPConstantResponse response) throws IOException {
+        ensureNotAbandoned();
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        committed = true;
+        finished = true;
+        head.setStatus(response.status());
+        resetBody();
+        write(response.head());
+        outputStream.write(PPHttpCommonHeaders.dateLine());
+        if (!head.isKeepAlive()) {
+            outputStream.write(PPHttpCommonHeaders.CONNECTION_CLOSE);
+        } else if (head.isHttp10()) {
+            outputStream.write(PPHttpCommonHeaders.CONNECTION_KEEP_ALIVE);
+        }
+        write(response.body());
+        outputStream.flush();
     }
 
-    public void write(String content) {
-        try {
-            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
-            outputStream.flush();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * 发送静态文件：响应头经过带缓冲的输出流先 flush 出去，文件内容再由 FileChannel.transferTo 直接写进 socket
+     */
+    public void sendFile(PPStaticFile file, WritableByteChannel socketChannel) throws IOException {
+        sendFileHead(file);
+        if (file.hasBody()) {
+            file.transferTo(socketChannel);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * 提交静态文件的响应头并 flush，文件内容由调用方发送
+     */
+    protected void sendFileHead(PPStaticFile file) throws IOException {
+        ensureNotAbandoned();
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        resetBody();
+        file.prepare(head);
+        committed = true;
+        finished = true;
+        ByteBuf out = Unpooled.buffer(256);
+        head.encode(out);
+        write(out);
+        outputStream.flush();
+    }
+
+    private void write(ByteBuf buf) throws IOException {
+        buf.getBytes(buf.readerIndex(), outputStream, buf.readableBytes());
+    }
+
+}
@@ -0,0 +1,225 @@
+package one.mini.domain.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import javax.servlet.ServletInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 由 event loop 收到的 ByteBuf 直接组成的请求体输入流。
+ * <p>
+ * 解码器把 body 数据的 retained slice 放进队列，servlet 线程读完一个就 release 一个，数据不会拷贝成 String，
+ * 也不会整体缓存在堆上：队列中未读的字节超过 {@link #HIGH_WATER_MARK} 时暂停 channel 的 autoRead，
+ * 读到 {@link #LOW_WATER_MARK} 以下再恢复。channel 不可写时读取也是暂停的，这时留给 channelWritabilityChanged 恢复。
+ * <p>
+ * read 会阻塞等待数据，所以不能在 event loop 上调用。
+ */
+public class PPNettyInputStream extends ServletInputStream {
+
+    public static final int HIGH_WATER_MARK = 64 * 1024;
+    public static final int LOW_WATER_MARK = 16 * 1024;
+
+    private final Channel channel;
+    private final ArrayDeque<ByteBuf> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+
+    private int queuedBytes;
+    private boolean finished;
+    private boolean discarded;
+    private boolean paused;
+    private IOException failure;
+
+    public PPNettyInputStream(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * event loop 调用，content 的所有权转移给输入流
+     */
+    public void offer(ByteBuf content) {
+        lock.lock();
+        try {
+            if (discarded || null != failure) {
+                content.release();
+                return;
+            }
+            queue.add(content);
+            queuedBytes += content.readableBytes();
+            if (queuedBytes > HIGH_WATER_MARK && !paused) {
+                paused = true;
+                channel.config().setAutoRead(false);
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * event loop 调用，body 已经全部到达
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接异常断开，唤醒等待中的读线程
+     */
+    public void abort(IOException cause) {
+        lock.lock();
+        try {
+            failure = cause;
+            releaseAll();
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * servlet 处理完之后调用，丢弃还没读的 body，后续到达的数据也直接释放
+     */
+    public void discard() {
+        lock.lock();
+        try {
+            discarded = true;
+            releaseAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isFinished() {
+        lock.lock();
+        try {
+            return finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        lock.lock();
+        try {
+            ByteBuf head = awaitData();
+            if (null == head) {
+                return -1;
+            }
+            int b = head.readUnsignedByte();
+            consumed(head, 1);
+            return b;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            ByteBuf head = awaitData();
+            if (null == head) {
+                return -1;
+            }
+            int n = 0;
+            while (null != head && n < len) {
+                int chunk = Math.min(len - n, head.readableBytes());
+                head.readBytes(b, off + n, chunk);
+                n += chunk;
+                consumed(head, chunk);
+                head = queue.peek();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        discard();
+    }
+
+    private ByteBuf awaitData() throws IOException {
+        while (true) {
+            if (null != failure) {
+                throw failure;
+            }
+            if (discarded) {
+                throw new IOException("request body already discarded");
+            }
+            ByteBuf head = queue.peek();
+            if (null != head) {
+                return head;
+            }
+            if (finished) {
+                return null;
+            }
+            if (channel.eventLoop().inEventLoop()) {
+                throw new IOException("blocking read of request body on event loop");
+            }
+            readable.awaitUninterruptibly();
+        }
+    }
+
+    private void consumed(ByteBuf head, int n) {
+        queuedBytes -= n;
+        if (!head.isReadable()) {
+            queue.poll();
+            head.release();
+        }
+        if (paused && queuedBytes < LOW_WATER_MARK) {
+            paused = false;
+            channel.config().setAutoRead(channel.isWritable());
+        }
+    }
+
+    /**
+     * 是否因为未读的 body 太多暂停了读取
+     */
+    public boolean isPaused() {
+        lock.lock();
+        try {
+            return paused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseAll() {
+        ByteBuf buf;
+        while (null != (buf = queue.poll())) {
+            buf.release();
+        }
+        queuedBytes = 0;
+        if (paused) {
+            paused = false;
+            channel.config().setAutoRead(channel.isWritable());
+        }
+    }
+}
@@ -1,37 +1,152 @@
 package one.mini.domain.netty;
 
+import io.netty.util.Recycler;
 import lombok.EqualsAndHashCode;
-import lombok.Getter;
 import one.mini.domain.AbstractPPRequest;
+import one.mini.http.PPHttpRequestHead;
 
+import javax.servlet.ServletInputStream;
+
+/**
+ * Netty 引擎的请求，由每个 event loop 自己的对象池（{@link Recycler}）分配，解码器直接把请求头解析进它的 head。
+ * <p>
+ * 释放约定：同步的 servlet 在响应完成、service 返回之后，由连接的 handler 在 event loop 上调用 {@link #recycle()}；
+ * 调用了 startAsync 的请求要等 servlet 调用 complete 或 fail（{@link one.mini.domain.PPAsyncContext#isReleased()}）之后，
+ * 即使已经超时。之后这个对象会被下一个请求复用，servlet 不能在请求结束后继续持有它。
+ */
 @EqualsAndHashCode(callSuper = true)
 public class PPNettyRequest extends AbstractPPRequest {
 
-    @Getter
-    private String url;
-    @Getter
-    private String method;
-    @Getter
+    private static final Recycler<PPNettyRequest> RECYCLER = new Recycler<>() {
+        @Override
+        protected PPNettyRequest newObject(Handle<PPNettyRequest> handle) {
+            return new PPNettyRequest(handle);
+        }
+    };
+
+    private final Recycler.Handle<PPNettyRequest> handle;
+    /**
+     * 接收请求的本地端口，Host 头里没有端口时使用
+     */
+    private int localPort;
     private String host;
-    @Getter
     private Integer port;
-    private final String request;
+    private PPNettyInputStream body;
+
+    private PPNettyRequest(Recycler.Handle<PPNettyRequest> handle) {
+        super(new PPHttpRequestHead());
+        this.handle = handle;
+    }
+
+    /**
+     * 从当前线程的对象池取一个空的请求
+     */
+    public static PPNettyRequest newInstance(int localPort) {
+        PPNettyRequest request = RECYCLER.get();
+        request.localPort = localPort;
+        return request;
+    }
+
+    /**
+     * 清空状态后放回对象池，没读完的 body 在这之前已经丢弃；servlet 还没释放的异步请求抛出 IllegalStateException
+     */
+    public void recycle() {
+        if (isAsyncStarted() && !getAsyncContext().isReleased()) {
+            throw new IllegalStateException("async request is still in use by the servlet");
+        }
+        clear();
+        localPort = 0;
+        host = null;
+        port = null;
+        body = null;
+        handle.recycle(this);
+    }
+
+    public void setBody(PPNettyInputStream body) {
+        this.body = body;
+    }
 
-    public PPNettyRequest(String request) {
-        this.request = request;
-        this.readFromRequest(request);
+    public boolean hasBody() {
+        return null != body;
     }
 
-    public void readFromRequest(String reqStr) {
-        if (reqStr.contains("\n")) {
-            String[] lines = reqStr.split("\r\n");
-            String[] protocols = lines[0].split(" ");
-            method = protocols[0];
-            url = protocols[1];
-            String[] hosts = lines[1].split(" ");
-            String[] hp = hosts[1].split(":");
-            this.host = hp[0];
-            this.port = Integer.parseInt(hp[1].trim());
+    /**
+     * servlet 处理完成后调用，丢弃没有读完的请求体
+     */
+    public void discardBody() {
+        if (null != body) {
+            body.discard();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * servlet 还没读走的 body 太多，读取暂停中
+     */
+    public boolean isBodyPaused() {
+        return null != body && body.isPaused();
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return true;
+    }
+
+    @Override
+    protected ServletInputStream body() {
+        return null == body ? super.body() : body;
+    }
+
+    public String getHost() {
+        if (null == host) {
+            readHost();
+        }
+        return host;
+    }
+
+    public Integer getPort() {
+        if (null == port) {
+            readHost();
+        }
+        return port;
+    }
+
+    /**
+     * Host: name[:port]，没有 Host 头或者没有端口时退回到本地端口
+     */
+    private void readHost() {
+        String hostHeader = head.headers().get("Host");
+        if (null == hostHeader || hostHeader.isEmpty()) {
+            host = "";
+            port = localPort;
+            return;
+        }
+        int colon = hostHeader.lastIndexOf(':');
+        // IPv6 字面量 [::1] 中的冒号不是端口分隔符
+        if (colon < 0 || colon < hostHeader.lastIndexOf(']')) {
+            host = hostHeader;
+            port = localPort;
+            return;
+        }
+        host = hostHeader.substring(0, colon);
+        try {
+            port = Integer.parseInt(hostHeader, colon + 1, hostHeader.length(), 10);
+        } catch (NumberFormatException e) {
+            port = localPort;
+        }
+    }
+
+    @Override
+    public String getServerName() {
+        return getHost();
+    }
+
+    @Override
+    public int getServerPort() {
+        return getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+}
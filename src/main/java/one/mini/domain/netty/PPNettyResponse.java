@@ -1,20 +1,149 @@
 package one.mini.domain.netty;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.Recycler;
 import lombok.EqualsAndHashCode;
 import one.mini.domain.AbstractPPResponse;
+import one.mini.http.PPConstantResponse;
+import one.mini.http.PPHttpCommonHeaders;
+import one.mini.http.PPStaticFile;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * body 写进 channel 分配器分配的池化 ByteBuf，flush 时连同响应头作为 {@link PPNettyResponsePart} 写进 pipeline，
+ * 由 PPHttpResponseEncoder 把响应头直接编码进池化的 ByteBuf，中间没有 String 也没有多余的拷贝。
+ * <p>
+ * 和 {@link PPNettyRequest} 一样由 event loop 的对象池分配，释放约定也相同：请求完成后由 handler 在 event loop 上 {@link #recycle()}，
+ * 异步请求要等 servlet complete 或 fail 之后。这时之前 flush 的消息都已经在 event loop 上编码完了，不会再用到 head。
+ */
 @EqualsAndHashCode(callSuper = true)
 public class PPNettyResponse extends AbstractPPResponse {
 
-    private final ChannelHandlerContext ctx;
+    private static final int INITIAL_BODY_SIZE = 256;
+
+    private static final Recycler<PPNettyResponse> RECYCLER = new Recycler<>() {
+        @Override
+        protected PPNettyResponse newObject(Handle<PPNettyResponse> handle) {
+            return new PPNettyResponse(handle);
+        }
+    };
+
+    private final Recycler.Handle<PPNettyResponse> handle;
+    private ChannelHandlerContext ctx;
+    private ByteBuf body;
+
+    private PPNettyResponse(Recycler.Handle<PPNettyResponse> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 从当前线程的对象池取一个响应，状态和新建的一样
+     */
+    public static PPNettyResponse newInstance(ChannelHandlerContext ctx) {
+        PPNettyResponse response = RECYCLER.get();
+        response.ctx = ctx;
+        return response;
+    }
+
+    /**
+     * 释放没有提交的 body，清空状态后放回对象池
+     */
+    public void recycle() {
+        release();
+        clear();
+        ctx = null;
+        handle.recycle(this);
+    }
+
+    @Override
+    protected void writeBody(byte[] b, int off, int len) {
+        if (null == body) {
+            body = ctx.alloc().buffer(Math.max(len, INITIAL_BODY_SIZE));
+        }
+        body.writeBytes(b, off, len);
+    }
+
+    @Override
+    protected int bodyLength() {
+        return null == body ? 0 : body.readableBytes();
+    }
+
+    @Override
+    protected void resetBody() {
+        if (null != body) {
+            body.clear();
+        }
+    }
+
+    /**
+     * 每次 flush 只 writeAndFlush 一个消息，响应头的编码、压缩和 chunked 分帧都在 pipeline 里完成
+     */
+    @Override
+    protected void flush(boolean writeHead, boolean last) {
+        ByteBuf content = body;
+        body = null;
+        ctx.writeAndFlush(new PPNettyResponsePart(writeHead ? head : null, content, last));
+    }
+
+    /**
+     * 直接发送预先编码好的固定响应，只是把常驻的 direct buffer 和当前的 Date 行拼起来，不做任何编码和拷贝
+     */
+    public void send(PPConstantResponse response) {
+        ensureNotAbandoned();
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        committed = true;
+        finished = true;
+        head.setStatus(response.status());
+        release();
+        CompositeByteBuf out = ctx.alloc().compositeDirectBuffer(4);
+        out.addComponent(true, response.head());
+        out.addComponent(true, PPHttpCommonHeaders.dateLineBuffer());
+        if (!head.isKeepAlive()) {
+            out.addComponent(true, PPHttpCommonHeaders.CONNECTION_CLOSE_BUFFER.duplicate());
+        } else if (head.isHttp10()) {
+            out.addComponent(true, PPHttpCommonHeaders.CONNECTION_KEEP_ALIVE_BUFFER.duplicate());
+        }
+        out.addComponent(true, response.body());
+        ctx.writeAndFlush(out);
+    }
 
-    public PPNettyResponse(ChannelHandlerContext ctx) {
-        this.ctx = ctx;
+    /**
+     * 发送静态文件：响应头照常经过 pipeline 编码，文件内容用 DefaultFileRegion 交给 transport，
+     * NIO/epoll 下最终是 sendfile，不经过堆内存也不经过用户态。FileChannel 在 region 写完或者失败后由 Netty 关闭
+     */
+    public void sendFile(PPStaticFile file) throws IOException {
+        ensureNotAbandoned();
+        if (committed) {
+            throw new IllegalStateException("response already committed");
+        }
+        release();
+        file.prepare(head);
+        committed = true;
+        finished = true;
+        if (!file.hasBody()) {
+            ctx.writeAndFlush(new PPNettyResponsePart(head, null, true));
+            return;
+        }
+        FileChannel channel = file.open();
+        ctx.write(new PPNettyResponsePart(head, null, false));
+        ctx.writeAndFlush(new DefaultFileRegion(channel, file.position(), file.count()));
     }
 
-    public void send(String content) {
-        ctx.writeAndFlush(content);
+    /**
+     * 没有提交的 body 需要释放，否则池化的 buffer 会泄漏
+     */
+    public void release() {
+        if (null != body) {
+            body.release();
+            body = null;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package one.mini.domain.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+import one.mini.http.PPHttpResponseHead;
+
+/**
+ * {@link PPNettyResponse} 每次 flush 写进 pipeline 的消息：第一段带着响应头，之后只有 body。
+ * 响应头在 pipeline 的编码阶段才编码成字节，中间的压缩阶段还可以修改它。
+ * <p>
+ * 和 Netty 的 HttpContent 一样是 ByteBufHolder，写失败时 Netty 会负责释放 body。
+ */
+public class PPNettyResponsePart extends DefaultByteBufHolder {
+
+    /**
+     * 第一段时是响应头，之后为 null
+     */
+    private final PPHttpResponseHead head;
+    private final boolean last;
+
+    public PPNettyResponsePart(PPHttpResponseHead head, ByteBuf content, boolean last) {
+        super(null == content ? Unpooled.EMPTY_BUFFER : content);
+        this.head = head;
+        this.last = last;
+    }
+
+    public PPHttpResponseHead head() {
+        return head;
+    }
+
+    public boolean last() {
+        return last;
+    }
+
+    @Override
+    public PPNettyResponsePart replace(ByteBuf content) {
+        return new PPNettyResponsePart(head, content, last);
+    }
+}
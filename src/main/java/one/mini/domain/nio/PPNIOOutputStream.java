@@ -0,0 +1,69 @@
+package one.mini.domain.nio;
+
+import one.mini.http.PPStaticFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * worker 线程写响应用的输出流：写入的字节先攒在数组里，flush 时整块交给连接的发送队列，由 selector 线程在可写时发送。
+ * 数组直接交出去，不再拷贝一次。
+ */
+public abstract class PPNIOOutputStream extends OutputStream {
+
+    private static final int INITIAL_SIZE = 512;
+
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int count;
+
+    /**
+     * 放进连接的发送队列，队列里积压太多时阻塞到 selector 线程发送掉一部分为止；连接已经关闭时抛出 IOException
+     */
+    protected abstract void enqueue(ByteBuffer buffer) throws IOException;
+
+    /**
+     * 静态文件同样排进发送队列，selector 线程用 FileChannel.transferTo 发送
+     */
+    protected abstract void enqueue(PPStaticFile file) throws IOException;
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+        buf = new byte[INITIAL_SIZE];
+        count = 0;
+        enqueue(buffer);
+    }
+
+    /**
+     * 先把已经写的内容（响应头）排进队列，再排文件
+     */
+    public void sendFile(PPStaticFile file) throws IOException {
+        flush();
+        enqueue(file);
+    }
+
+    private void ensureCapacity(int len) {
+        if (count + len > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length << 1, count + len)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+}
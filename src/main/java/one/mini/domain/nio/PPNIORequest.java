@@ -0,0 +1,67 @@
+package one.mini.domain.nio;
+
+import lombok.EqualsAndHashCode;
+import one.mini.domain.AbstractPPRequest;
+import one.mini.http.PPHttpRequestHead;
+
+import javax.servlet.ServletInputStream;
+
+/**
+ * NIO 引擎的请求：selector 线程把请求头和完整的请求体都收齐之后才交给 worker，servlet 读请求体时不会阻塞
+ */
+@EqualsAndHashCode(callSuper = true)
+public class PPNIORequest extends AbstractPPRequest {
+
+    private final ServletInputStream body;
+
+    public PPNIORequest(PPHttpRequestHead head, byte[] body, int length) {
+        super(head);
+        this.body = null == body ? null : new BodyInputStream(body, length);
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return true;
+    }
+
+    @Override
+    protected ServletInputStream body() {
+        return null == body ? super.body() : body;
+    }
+
+    private static class BodyInputStream extends ServletInputStream {
+
+        private final byte[] data;
+        private final int length;
+        private int position;
+
+        private BodyInputStream(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return position < length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int n = Math.min(len, length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return length - position;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package one.mini.domain.nio;
+
+import lombok.EqualsAndHashCode;
+import one.mini.domain.bio.PPResponse;
+import one.mini.http.PPHttpCompressor;
+import one.mini.http.PPStaticFile;
+
+import java.io.IOException;
+
+/**
+ * NIO 引擎的响应：servlet 在 worker 线程上阻塞地写，和 BIO 一样的编码、压缩和分帧，
+ * 只是底层的输出流不直接写 socket，而是交给 selector 线程发送。
+ */
+@EqualsAndHashCode(callSuper = true)
+public class PPNIOResponse extends PPResponse {
+
+    private final PPNIOOutputStream output;
+
+    public PPNIOResponse(PPNIOOutputStream output, PPHttpCompressor compressor) {
+        super(output, compressor);
+        this.output = output;
+    }
+
+    /**
+     * 发送静态文件：响应头排进发送队列，文件内容由 selector 线程 transferTo
+     */
+    public void sendFile(PPStaticFile file) throws IOException {
+        sendFileHead(file);
+        if (file.hasBody()) {
+            output.sendFile(file);
+        }
+    }
+}
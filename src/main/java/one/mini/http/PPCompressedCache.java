@@ -0,0 +1,96 @@
+package one.mini.http;
+
+import one.mini.anno.CacheableResponse;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 标记了 {@link CacheableResponse} 的 servlet 的压缩结果缓存，按条数和总字节数限制大小，LRU 淘汰。
+ * <p>
+ * 命中时还要校验未压缩 body 的长度和 CRC32，servlet 输出变了就重新压缩，不会返回过期的内容。
+ * 算 CRC32 比压缩便宜得多。
+ * <p>
+ * 用 ReentrantLock 而不是 synchronized：BIO 引擎的请求跑在虚拟线程上，在 monitor 上等锁会把载体线程也钉住。
+ */
+public class PPCompressedCache {
+
+    public static final PPCompressedCache SHARED = new PPCompressedCache(256, 16 * 1024 * 1024);
+
+    private static final ClassValue<Boolean> CACHEABLE = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return type.isAnnotationPresent(CacheableResponse.class);
+        }
+    };
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long bytes;
+
+    public PPCompressedCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * servlet 可以缓存时返回缓存的 key（servlet 实例 + 请求目标），否则返回 null。
+     * key 里不保存 servlet 的引用，重新部署后旧的 classloader 不会被缓存拖住
+     */
+    public static String keyFor(Object servlet, PPHttpRequestHead request) {
+        if (null == servlet || !CACHEABLE.get(servlet.getClass())) {
+            return null;
+        }
+        return servlet.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(servlet)) + ' ' + request.uri();
+    }
+
+    /**
+     * 未压缩内容的长度和 CRC32 都对得上才返回压缩结果
+     */
+    public byte[] get(String key, String encoding, int length, long crc) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key + ' ' + encoding);
+            if (null == entry || entry.length != length || entry.crc != crc) {
+                return null;
+            }
+            return entry.compressed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(String key, String encoding, int length, long crc, byte[] compressed) {
+        if (compressed.length > maxBytes / 4) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry old = entries.put(key + ' ' + encoding, new Entry(length, crc, compressed));
+            bytes += compressed.length - (null == old ? 0 : old.compressed.length);
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+                bytes -= it.next().getValue().compressed.length;
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry(int length, long crc, byte[] compressed) {
+    }
+}
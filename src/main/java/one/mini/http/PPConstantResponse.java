@@ -0,0 +1,67 @@
+package one.mini.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 内容固定的响应（欢迎页、404 页面等），启动时编码一次，常驻在不会被释放的 direct buffer 里。
+ * <p>
+ * Date 和 Connection 每次都可能不同，所以分成两段：状态行 + Content-Type + Content-Length 一段，
+ * 空行 + body 一段，发送时中间插入当前的 Date 行和需要的 Connection 行。
+ */
+public class PPConstantResponse {
+
+    private final int status;
+    private final ByteBuf head;
+    private final ByteBuf body;
+
+    public PPConstantResponse(int status, String contentType, byte[] body, String... headers) {
+        this.status = status;
+        ByteBuf headBuf = Unpooled.directBuffer(128);
+        headBuf.writeBytes(PPHttpStatus.statusLine(status, null));
+        byte[] contentTypeLine = PPHttpCommonHeaders.contentTypeLine(contentType);
+        if (null != contentTypeLine) {
+            headBuf.writeBytes(contentTypeLine);
+        } else {
+            headBuf.writeBytes(PPHttpCommonHeaders.CONTENT_TYPE);
+            headBuf.writeCharSequence(contentType, StandardCharsets.ISO_8859_1);
+            headBuf.writeBytes(PPHttpCommonHeaders.CRLF);
+        }
+        // 额外的固定响应头，例如 503 的 Retry-After，格式是 "Name: value"
+        for (String header : headers) {
+            headBuf.writeCharSequence(header, StandardCharsets.ISO_8859_1);
+            headBuf.writeBytes(PPHttpCommonHeaders.CRLF);
+        }
+        headBuf.writeBytes(PPHttpCommonHeaders.CONTENT_LENGTH);
+        PPHttpResponseHead.writeDecimal(headBuf, body.length);
+        headBuf.writeBytes(PPHttpCommonHeaders.CRLF);
+        this.head = Unpooled.unreleasableBuffer(headBuf);
+        this.body = Unpooled.unreleasableBuffer(Unpooled.directBuffer(2 + body.length)
+                .writeBytes(PPHttpCommonHeaders.CRLF)
+                .writeBytes(body));
+    }
+
+    public static PPConstantResponse html(int status, String html, String... headers) {
+        return new PPConstantResponse(status, "text/html;charset=UTF-8", html.getBytes(StandardCharsets.UTF_8), headers);
+    }
+
+    public int status() {
+        return status;
+    }
+
+    /**
+     * 状态行 + Content-Type + Content-Length，每次返回新的 duplicate
+     */
+    public ByteBuf head() {
+        return head.duplicate();
+    }
+
+    /**
+     * 结束响应头的空行 + body，每次返回新的 duplicate
+     */
+    public ByteBuf body() {
+        return body.duplicate();
+    }
+}
@@ -0,0 +1,186 @@
+package one.mini.http;
+
+/**
+ * 请求体的分帧状态机，支持 Content-Length 和 Transfer-Encoding: chunked。
+ * <p>
+ * 状态机本身不持有数据：{@link #available()} 告诉调用方接下来有多少字节是 body 数据，调用方直接从自己的
+ * ByteBuf/ByteBuffer 中取走后调用 {@link #consumed(long)}；available 为 0 时，把下一个（chunk 框架）字节交给
+ * {@link #feed(byte)}。这样 Netty 和 BIO 可以共用同一套分帧逻辑，数据本身不会被多拷贝一次。
+ */
+public class PPHttpBodyDecoder {
+
+    private static final int MAX_TRAILER_SIZE = 8192;
+
+    private enum State {
+        FIXED,
+        CHUNK_SIZE,
+        CHUNK_EXTENSION,
+        CHUNK_SIZE_LF,
+        CHUNK_DATA,
+        CHUNK_DATA_CR,
+        CHUNK_DATA_LF,
+        TRAILER_START,
+        TRAILER_LINE,
+        TRAILER_END_LF,
+        DONE
+    }
+
+    private final boolean chunked;
+    private State state;
+    private long remaining;
+    private boolean sizeDigits;
+    private int trailerBytes;
+
+    private PPHttpBodyDecoder(boolean chunked, long contentLength) {
+        this.chunked = chunked;
+        if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else {
+            remaining = contentLength;
+            state = contentLength == 0 ? State.DONE : State.FIXED;
+        }
+    }
+
+    /**
+     * 根据请求头选择分帧方式，没有 body 返回 null
+     */
+    public static PPHttpBodyDecoder of(PPHttpRequestHead head) throws PPHttpParseException {
+        PPHttpHeaders headers = head.headers();
+        if (headers.contains("Transfer-Encoding")) {
+            if (!headers.containsToken("Transfer-Encoding", "chunked")) {
+                throw new PPHttpParseException(501, "unsupported transfer encoding: " + headers.get("Transfer-Encoding"));
+            }
+            // 同时带 Content-Length 时以 chunked 为准（RFC 7230 3.3.3）
+            return new PPHttpBodyDecoder(true, -1);
+        }
+        long contentLength;
+        try {
+            contentLength = headers.getLong("Content-Length");
+        } catch (NumberFormatException e) {
+            throw new PPHttpParseException(400, e.getMessage());
+        }
+        return contentLength > 0 ? new PPHttpBodyDecoder(false, contentLength) : null;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * 接下来可以直接读取的 body 字节数，0 表示需要先 feed 框架字节（或者已经结束）
+     */
+    public long available() {
+        return state == State.FIXED || state == State.CHUNK_DATA ? remaining : 0;
+    }
+
+    public void consumed(long n) {
+        remaining -= n;
+        if (remaining == 0) {
+            state = state == State.FIXED ? State.DONE : State.CHUNK_DATA_CR;
+        }
+    }
+
+    /**
+     * 处理一个 chunk 框架字节：chunk size 行、数据后的 CRLF 以及 trailer
+     */
+    public void feed(byte b) throws PPHttpParseException {
+        switch (state) {
+            case CHUNK_SIZE:
+                int digit = Character.digit(b, 16);
+                if (digit >= 0) {
+                    if (remaining > (Long.MAX_VALUE >> 4)) {
+                        throw new PPHttpParseException(400, "chunk size too large");
+                    }
+                    remaining = (remaining << 4) | digit;
+                    sizeDigits = true;
+                    break;
+                }
+                if (!sizeDigits) {
+                    throw new PPHttpParseException(400, "invalid chunk size");
+                }
+                if (b == ';' || b == ' ' || b == '\t') {
+                    state = State.CHUNK_EXTENSION;
+                } else if (b == '\r') {
+                    state = State.CHUNK_SIZE_LF;
+                } else if (b == '\n') {
+                    endOfChunkSize();
+                } else {
+                    throw new PPHttpParseException(400, "invalid chunk size");
+                }
+                break;
+            case CHUNK_EXTENSION:
+                // chunk extension 直接忽略
+                if (b == '\r') {
+                    state = State.CHUNK_SIZE_LF;
+                } else if (b == '\n') {
+                    endOfChunkSize();
+                }
+                break;
+            case CHUNK_SIZE_LF:
+                expectLf(b);
+                endOfChunkSize();
+                break;
+            case CHUNK_DATA_CR:
+                if (b == '\r') {
+                    state = State.CHUNK_DATA_LF;
+                    break;
+                }
+                expectLf(b);
+                nextChunk();
+                break;
+            case CHUNK_DATA_LF:
+                expectLf(b);
+                nextChunk();
+                break;
+            case TRAILER_START:
+                if (b == '\r') {
+                    state = State.TRAILER_END_LF;
+                } else if (b == '\n') {
+                    state = State.DONE;
+                } else {
+                    state = State.TRAILER_LINE;
+                    countTrailer();
+                }
+                break;
+            case TRAILER_LINE:
+                // trailer header 目前不暴露给 servlet
+                countTrailer();
+                if (b == '\n') {
+                    state = State.TRAILER_START;
+                }
+                break;
+            case TRAILER_END_LF:
+                expectLf(b);
+                state = State.DONE;
+                break;
+            default:
+                throw new PPHttpParseException(400, "unexpected body byte in state " + state);
+        }
+    }
+
+    private void endOfChunkSize() {
+        state = remaining == 0 ? State.TRAILER_START : State.CHUNK_DATA;
+    }
+
+    private void nextChunk() {
+        state = State.CHUNK_SIZE;
+        remaining = 0;
+        sizeDigits = false;
+    }
+
+    private void countTrailer() throws PPHttpParseException {
+        if (++trailerBytes > MAX_TRAILER_SIZE) {
+            throw new PPHttpParseException(431, "chunked trailer too large");
+        }
+    }
+
+    private static void expectLf(byte b) throws PPHttpParseException {
+        if (b != '\n') {
+            throw new PPHttpParseException(400, "CR without LF in chunked body");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package one.mini.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 所有响应共用的预编码响应头：常见的 Content-Type 整行、Connection 整行，以及 Date。
+ * <p>
+ * Date 只精确到秒，由后台线程每秒重新编码一次，处理请求时直接拿现成的字节，不再格式化日期。
+ */
+public final class PPHttpCommonHeaders {
+
+    public static final byte[] CRLF = {'\r', '\n'};
+    public static final byte[] COLON_SPACE = {':', ' '};
+    public static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+    public static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    public static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    public static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    public static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    public static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+
+    /**
+     * 直接写给 channel 用的版本，写之前要 duplicate
+     */
+    public static final ByteBuf CONNECTION_CLOSE_BUFFER = constant(CONNECTION_CLOSE);
+    public static final ByteBuf CONNECTION_KEEP_ALIVE_BUFFER = constant(CONNECTION_KEEP_ALIVE);
+    public static final ByteBuf CRLF_BUFFER = constant(CRLF);
+    public static final ByteBuf LAST_CHUNK_BUFFER = constant(LAST_CHUNK);
+
+    /**
+     * Content-Type 完整的一行（包括结尾的 CRLF），只收录常见的值
+     */
+    private static final Map<String, byte[]> CONTENT_TYPE_LINES = new HashMap<>();
+
+    static {
+        for (String type : new String[]{"text/html", "text/plain", "text/css", "text/javascript", "application/javascript", "application/json", "application/xml"}) {
+            contentType(type);
+            contentType(type + ";charset=UTF-8");
+        }
+        for (String type : new String[]{"image/png", "image/jpeg", "image/gif", "image/svg+xml", "image/x-icon", "image/webp", "application/octet-stream"}) {
+            contentType(type);
+        }
+    }
+
+    private static final ScheduledExecutorService DATE_TICK = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pp-http-date");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile byte[] dateLine;
+    private static volatile ByteBuf dateLineBuffer;
+
+    static {
+        updateDate();
+        // 对齐到整秒，保证 Date 和真实时间最多差一秒
+        long delay = 1000 - System.currentTimeMillis() % 1000;
+        DATE_TICK.scheduleAtFixedRate(PPHttpCommonHeaders::updateDate, delay, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    private PPHttpCommonHeaders() {
+    }
+
+    private static void contentType(String type) {
+        CONTENT_TYPE_LINES.put(type, ascii("Content-Type: " + type + "\r\n"));
+    }
+
+    private static void updateDate() {
+        byte[] line = ascii("Date: " + PPHttpDates.format(System.currentTimeMillis()) + "\r\n");
+        // direct buffer 交给 GC 回收，不需要 release
+        ByteBuffer direct = ByteBuffer.allocateDirect(line.length).put(line).flip();
+        dateLine = line;
+        dateLineBuffer = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(direct));
+    }
+
+    /**
+     * 常见 Content-Type 预编码好的整行，不常见的返回 null
+     */
+    public static byte[] contentTypeLine(String contentType) {
+        return CONTENT_TYPE_LINES.get(contentType);
+    }
+
+    /**
+     * 当前这一秒的 "Date: ...\r\n"
+     */
+    public static byte[] dateLine() {
+        return dateLine;
+    }
+
+    /**
+     * 同 {@link #dateLine()}，直接写给 channel 用
+     */
+    public static ByteBuf dateLineBuffer() {
+        return dateLineBuffer.duplicate();
+    }
+
+    /**
+     * 常驻内存的 direct buffer，不会被释放，每次使用前 duplicate，不影响原 buffer 的读写位置
+     */
+    public static ByteBuf constant(byte[] bytes) {
+        return Unpooled.unreleasableBuffer(Unpooled.directBuffer(bytes.length, bytes.length).writeBytes(bytes));
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,200 @@
+package one.mini.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 响应压缩，一个连接一个实例，Deflater 在同一个连接的多个响应之间复用。
+ * <p>
+ * 先用 {@link #begin} 判断这个响应要不要压缩（客户端支持、文本类型、不小于 {@link #MIN_SIZE}），
+ * 要压缩时改好响应头，之后每段 body 交给 {@link #encode} 压缩。整个 body 一次给出时结果有确定的长度，
+ * 可以写 Content-Length，也可以放进 {@link PPCompressedCache}；分段给出时每段 SYNC_FLUSH，保证已经写的内容能立刻解压出来。
+ */
+public class PPHttpCompressor {
+
+    /**
+     * 太小的 body 压缩之后省不了几个字节，不值得花 CPU
+     */
+    public static final int MIN_SIZE = 1024;
+
+    private static final int LEVEL = 6;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final PPCompressedCache cache;
+
+    private Deflater gzipDeflater;
+    private Deflater zlibDeflater;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * 当前响应的状态
+     */
+    private Deflater deflater;
+    private boolean gzip;
+    private boolean started;
+    private String cacheKey;
+    private long inputLength;
+
+    public PPHttpCompressor(PPCompressedCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 响应头提交前调用，返回 true 表示这个响应要压缩，响应头已经加上 Content-Encoding
+     */
+    public boolean begin(PPHttpResponseHead head, ByteBuf content, boolean last) {
+        deflater = null;
+        String contentType = head.getContentType();
+        if (!PPHttpStatus.hasBody(head.getStatus()) || !PPHttpContentEncoding.isCompressible(contentType)
+                || head.contains("Content-Encoding") || head.contains("Content-Range")) {
+            return false;
+        }
+        int available = null == content ? 0 : content.readableBytes();
+        if (last ? available < MIN_SIZE : (head.getContentLength() >= 0 && head.getContentLength() < MIN_SIZE)) {
+            return false;
+        }
+        head.add("Vary", "Accept-Encoding");
+        String encoding = head.getAcceptEncoding();
+        // 明确给了 Content-Length 又分段写出时，压缩后的长度事先不知道，只能不压缩
+        if (null == encoding || (!last && head.getContentLength() >= 0)) {
+            return false;
+        }
+        gzip = PPHttpContentEncoding.GZIP.equals(encoding);
+        deflater = deflater(gzip);
+        deflater.reset();
+        crc.reset();
+        started = false;
+        inputLength = 0;
+        cacheKey = last ? head.getCacheKey() : null;
+        head.set("Content-Encoding", encoding);
+        return true;
+    }
+
+    public boolean isActive() {
+        return null != deflater;
+    }
+
+    /**
+     * 压缩一段 body，释放 content，返回压缩后的内容；last 时写出压缩流的结尾。
+     * 整个 body 一次给出时同时把 Content-Length 改成压缩后的长度
+     */
+    public ByteBuf encode(PPHttpResponseHead head, ByteBuf content, boolean last, ByteBufAllocator alloc) {
+        try {
+            int length = null == content ? 0 : content.readableBytes();
+            boolean whole = last && !started;
+            long checksum = 0;
+            if (whole && null != cacheKey) {
+                checksum = checksum(content);
+                byte[] cached = cache.get(cacheKey, gzip ? PPHttpContentEncoding.GZIP : PPHttpContentEncoding.DEFLATE, length, checksum);
+                if (null != cached) {
+                    head.setContentLength(cached.length);
+                    deflater = null;
+                    return Unpooled.wrappedBuffer(cached);
+                }
+            }
+            ByteBuf out = alloc.buffer(whole ? Math.max(64, length / 3) : Math.max(64, length / 2));
+            if (!started) {
+                started = true;
+                if (gzip) {
+                    out.writeBytes(GZIP_HEADER);
+                }
+            }
+            if (length > 0) {
+                ByteBuffer input = content.nioBuffer();
+                if (gzip) {
+                    crc.update(input.duplicate());
+                }
+                inputLength += length;
+                deflater.setInput(input);
+                drain(out, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            }
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflateInto(out, Deflater.NO_FLUSH);
+                }
+                if (gzip) {
+                    out.writeIntLE((int) crc.getValue());
+                    out.writeIntLE((int) inputLength);
+                }
+                deflater = null;
+            }
+            if (whole) {
+                head.setContentLength(out.readableBytes());
+                if (null != cacheKey) {
+                    byte[] compressed = new byte[out.readableBytes()];
+                    out.getBytes(out.readerIndex(), compressed);
+                    cache.put(cacheKey, gzip ? PPHttpContentEncoding.GZIP : PPHttpContentEncoding.DEFLATE, length, checksum, compressed);
+                }
+            }
+            return out;
+        } finally {
+            if (null != content) {
+                content.release();
+            }
+        }
+    }
+
+    /**
+     * 连接关闭时释放 Deflater 占用的 native 内存
+     */
+    public void close() {
+        if (null != gzipDeflater) {
+            gzipDeflater.end();
+            gzipDeflater = null;
+        }
+        if (null != zlibDeflater) {
+            zlibDeflater.end();
+            zlibDeflater = null;
+        }
+        deflater = null;
+    }
+
+    private Deflater deflater(boolean gzip) {
+        if (gzip) {
+            if (null == gzipDeflater) {
+                gzipDeflater = new Deflater(LEVEL, true);
+            }
+            return gzipDeflater;
+        }
+        if (null == zlibDeflater) {
+            zlibDeflater = new Deflater(LEVEL, false);
+        }
+        return zlibDeflater;
+    }
+
+    private long checksum(ByteBuf content) {
+        CRC32 c = new CRC32();
+        if (null != content) {
+            c.update(content.nioBuffer());
+        }
+        return c.getValue();
+    }
+
+    /**
+     * NO_FLUSH 时压缩到输入用完；SYNC_FLUSH 时还要把 deflater 内部缓冲的内容全部吐出来，直到输出没有填满为止
+     */
+    private void drain(ByteBuf out, int flush) {
+        while (true) {
+            out.ensureWritable(Math.max(64, out.writableBytes()));
+            int room = out.writableBytes();
+            int n = deflateInto(out, flush);
+            if (flush == Deflater.NO_FLUSH ? deflater.needsInput() : n < room) {
+                return;
+            }
+        }
+    }
+
+    private int deflateInto(ByteBuf out, int flush) {
+        out.ensureWritable(64);
+        ByteBuffer dst = out.nioBuffer(out.writerIndex(), out.writableBytes());
+        int n = deflater.deflate(dst, flush);
+        out.writerIndex(out.writerIndex() + n);
+        return n;
+    }
+}
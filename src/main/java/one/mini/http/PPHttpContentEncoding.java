@@ -0,0 +1,77 @@
+package one.mini.http;
+
+import java.util.Locale;
+
+/**
+ * 根据 Accept-Encoding 选择响应的压缩方式，只支持 gzip 和 deflate，同样可接受时优先 gzip
+ */
+public final class PPHttpContentEncoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private PPHttpContentEncoding() {
+    }
+
+    /**
+     * 客户端能接受的压缩方式，都不接受时返回 null
+     */
+    public static String negotiate(PPHttpRequestHead head) {
+        PPHttpHeaders headers = head.headers();
+        float gzip = 0;
+        float deflate = 0;
+        float any = -1;
+        for (int h = headers.indexOf("Accept-Encoding"); h >= 0; h = headers.indexOf("Accept-Encoding", h + 1)) {
+            for (String item : headers.value(h).split(",")) {
+                int semicolon = item.indexOf(';');
+                String coding = (semicolon < 0 ? item : item.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+                float q = semicolon < 0 ? 1 : quality(item.substring(semicolon + 1));
+                switch (coding) {
+                    case GZIP, "x-gzip" -> gzip = Math.max(gzip, q);
+                    case DEFLATE -> deflate = Math.max(deflate, q);
+                    case "*" -> any = q;
+                    default -> {
+                    }
+                }
+            }
+        }
+        if (any > 0) {
+            // "*" 只作用于没有单独列出的编码
+            gzip = gzip == 0 ? any : gzip;
+            deflate = deflate == 0 ? any : deflate;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static float quality(String params) {
+        for (String param : params.split(";")) {
+            String p = param.trim();
+            if (p.startsWith("q=") || p.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(p.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 文本类的内容才值得压缩，图片、压缩包本身已经压缩过了
+     */
+    public static boolean isCompressible(String contentType) {
+        if (null == contentType) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/xml")
+                || type.startsWith("image/svg+xml");
+    }
+}
@@ -0,0 +1,49 @@
+package one.mini.http;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+
+/**
+ * HTTP 日期格式：RFC 1123、RFC 850 以及 asctime
+ */
+public class PPHttpDates {
+
+    private static final DateTimeFormatter RFC_1123 = DateTimeFormatter.RFC_1123_DATE_TIME;
+    private static final DateTimeFormatter RFC_850 = new DateTimeFormatterBuilder()
+            .appendPattern("EEEE, dd-MMM-")
+            .appendValueReduced(ChronoField.YEAR, 2, 2, 1970)
+            .appendPattern(" HH:mm:ss zzz")
+            .toFormatter(Locale.US);
+    private static final DateTimeFormatter ASCTIME = DateTimeFormatter
+            .ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter[] FORMATS = {RFC_1123, RFC_850, ASCTIME};
+
+    /**
+     * 解析失败返回 Long.MIN_VALUE
+     */
+    public static long parse(String value) {
+        for (DateTimeFormatter format : FORMATS) {
+            try {
+                return ZonedDateTime.parse(value, format).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    public static String format(long millis) {
+        return IMF_FIXDATE.format(Instant.ofEpochMilli(millis));
+    }
+}
@@ -0,0 +1,366 @@
+package one.mini.http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * 请求头表，只保存 name/value 在 {@link PPHttpRequestHead#raw} 中的偏移量。
+ * <p>
+ * 查找时直接按字节忽略大小写比较，name/value 的 String 和 int/date 的解析结果在第一次访问时才创建并缓存，
+ * servlet 没读过的 header 不会产生任何 String。
+ */
+public class PPHttpHeaders {
+
+    private static final int INITIAL_HEADERS = 16;
+
+    private static final byte NOT_PARSED = 0;
+    private static final byte PARSED = 1;
+    private static final byte INVALID = 2;
+
+    private final PPHttpRequestHead head;
+
+    /**
+     * 每个 header 占 4 个 int：nameStart, nameEnd, valueStart, valueEnd
+     */
+    private int[] index = new int[INITIAL_HEADERS * 4];
+    private int count;
+
+    private String[] names;
+    private String[] values;
+    private long[] parsed;
+    private byte[] parsedState;
+
+    PPHttpHeaders(PPHttpRequestHead head) {
+        this.head = head;
+    }
+
+    /**
+     * 缓存只在读取时按当时的 header 数扩容，可能比 count 短
+     */
+    void clear() {
+        if (null != names) {
+            int cached = Math.min(count, names.length);
+            Arrays.fill(names, 0, cached, null);
+            Arrays.fill(values, 0, cached, null);
+        }
+        if (null != parsedState) {
+            Arrays.fill(parsedState, 0, Math.min(count, parsedState.length), NOT_PARSED);
+        }
+        count = 0;
+    }
+
+    void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int i = count << 2;
+        if (i + 4 > index.length) {
+            index = Arrays.copyOf(index, index.length << 1);
+        }
+        index[i] = nameStart;
+        index[i + 1] = nameEnd;
+        index[i + 2] = valueStart;
+        index[i + 3] = valueEnd;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 按名称查找 header，忽略大小写，从 from 开始，返回下标，找不到返回 -1
+     */
+    public int indexOf(String name, int from) {
+        byte[] raw = head.raw;
+        int len = name.length();
+        for (int h = from; h < count; h++) {
+            int i = h << 2;
+            int start = index[i];
+            if (index[i + 1] - start == len && equalsIgnoreCase(raw, start, name)) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    public int indexOf(String name) {
+        return indexOf(name, 0);
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name, 0) >= 0;
+    }
+
+    public String name(int h) {
+        ensureStringCache();
+        String name = names[h];
+        if (null == name) {
+            int i = h << 2;
+            name = names[h] = head.ascii(index[i], index[i + 1]);
+        }
+        return name;
+    }
+
+    public String value(int h) {
+        ensureStringCache();
+        String value = values[h];
+        if (null == value) {
+            int i = h << 2;
+            value = values[h] = head.ascii(index[i + 2], index[i + 3]);
+        }
+        return value;
+    }
+
+    /**
+     * 第一个同名 header 的值，没有返回 null
+     */
+    public String get(String name) {
+        int h = indexOf(name, 0);
+        return h < 0 ? null : value(h);
+    }
+
+    /**
+     * value 是否等于 expected（忽略大小写），不创建 String
+     */
+    public boolean valueEqualsIgnoreCase(int h, String expected) {
+        int i = h << 2;
+        int start = index[i + 2];
+        return index[i + 3] - start == expected.length() && equalsIgnoreCase(head.raw, start, expected);
+    }
+
+    /**
+     * 逗号分隔的 value 中是否包含 token（忽略大小写），例如 Connection: keep-alive, Upgrade
+     */
+    public boolean containsToken(String name, String token) {
+        byte[] raw = head.raw;
+        int len = token.length();
+        for (int h = indexOf(name, 0); h >= 0; h = indexOf(name, h + 1)) {
+            int i = h << 2;
+            int p = index[i + 2];
+            int end = index[i + 3];
+            while (p < end) {
+                while (p < end && (raw[p] == ' ' || raw[p] == '\t' || raw[p] == ',')) p++;
+                int start = p;
+                while (p < end && raw[p] != ',') p++;
+                int tokenEnd = p;
+                while (tokenEnd > start && (raw[tokenEnd - 1] == ' ' || raw[tokenEnd - 1] == '\t')) tokenEnd--;
+                if (tokenEnd - start == len && equalsIgnoreCase(raw, start, token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 所有同名 header 的值
+     */
+    public Enumeration<String> values(String name) {
+        int first = indexOf(name, 0);
+        if (first < 0) {
+            return Collections.emptyEnumeration();
+        }
+        return new Enumeration<>() {
+            private int next = first;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next >= 0;
+            }
+
+            @Override
+            public String nextElement() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                String value = value(next);
+                next = indexOf(name, next + 1);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * 去重后的 header 名称，保持首次出现的顺序
+     */
+    public Enumeration<String> names() {
+        return new Enumeration<>() {
+            private int next = skipDuplicates(0);
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < count;
+            }
+
+            @Override
+            public String nextElement() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                String name = name(next);
+                next = skipDuplicates(next + 1);
+                return name;
+            }
+        };
+    }
+
+    private int skipDuplicates(int h) {
+        byte[] raw = head.raw;
+        for (; h < count; h++) {
+            int i = h << 2;
+            int len = index[i + 1] - index[i];
+            boolean seen = false;
+            for (int prev = 0; prev < h && !seen; prev++) {
+                int j = prev << 2;
+                seen = index[j + 1] - index[j] == len
+                        && equalsIgnoreCase(raw, index[i], raw, index[j], len);
+            }
+            if (!seen) {
+                return h;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按 servlet 规范：没有该 header 返回 -1，格式错误抛 NumberFormatException
+     */
+    public int getInt(String name) {
+        long value = getLong(name);
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("int header out of range " + name + ": " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 非负整数 header，例如 Content-Length，没有返回 -1，格式错误抛 NumberFormatException
+     */
+    public long getLong(String name) {
+        int h = indexOf(name, 0);
+        if (h < 0) {
+            return -1;
+        }
+        ensureParsedCache();
+        if (parsedState[h] == NOT_PARSED) {
+            int i = h << 2;
+            long value = parseLong(head.raw, index[i + 2], index[i + 3]);
+            parsedState[h] = value < 0 ? INVALID : PARSED;
+            parsed[h] = value;
+        }
+        if (parsedState[h] == INVALID) {
+            throw new NumberFormatException("invalid number header " + name + ": " + value(h));
+        }
+        return parsed[h];
+    }
+
+    /**
+     * 按 servlet 规范：没有该 header 返回 -1，格式错误抛 IllegalArgumentException
+     */
+    public long getDate(String name) {
+        int h = indexOf(name, 0);
+        if (h < 0) {
+            return -1;
+        }
+        ensureParsedCache();
+        if (parsedState[h] == NOT_PARSED) {
+            long millis = PPHttpDates.parse(value(h));
+            parsedState[h] = millis == Long.MIN_VALUE ? INVALID : PARSED;
+            parsed[h] = millis;
+        }
+        if (parsedState[h] == INVALID) {
+            throw new IllegalArgumentException("invalid date header " + name + ": " + value(h));
+        }
+        return parsed[h];
+    }
+
+    /**
+     * 解析非负十进制整数，非法时返回 -1
+     */
+    static long parseLong(byte[] raw, int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int p = start; p < end; p++) {
+            int digit = raw[p] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private void ensureStringCache() {
+        if (null == names || names.length < count) {
+            int size = Math.max(count, INITIAL_HEADERS);
+            names = null == names ? new String[size] : Arrays.copyOf(names, size);
+            values = null == values ? new String[size] : Arrays.copyOf(values, size);
+        }
+    }
+
+    private void ensureParsedCache() {
+        if (null == parsed || parsed.length < count) {
+            int size = Math.max(count, INITIAL_HEADERS);
+            parsed = null == parsed ? new long[size] : Arrays.copyOf(parsed, size);
+            parsedState = null == parsedState ? new byte[size] : Arrays.copyOf(parsedState, size);
+        }
+    }
+
+    static boolean equalsIgnoreCase(byte[] raw, int start, String name) {
+        for (int j = 0, len = name.length(); j < len; j++) {
+            if (!sameIgnoreCase(raw[start + j], name.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] a, int aStart, byte[] b, int bStart, int len) {
+        for (int j = 0; j < len; j++) {
+            if (!sameIgnoreCase(a[aStart + j], b[bStart + j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameIgnoreCase(int a, int b) {
+        if (a == b) {
+            return true;
+        }
+        int lower = a | 0x20;
+        return lower >= 'a' && lower <= 'z' && lower == (b | 0x20);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int h = 0; h < count; h++) {
+            sb.append(name(h)).append(": ").append(value(h)).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Content-Type 中的 charset 参数，例如 text/html; charset=UTF-8
+     */
+    public static String charsetOf(String contentType) {
+        if (null == contentType) {
+            return null;
+        }
+        int i = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (i < 0) {
+            return null;
+        }
+        int start = i + "charset=".length();
+        int end = contentType.indexOf(';', start);
+        String charset = (end < 0 ? contentType.substring(start) : contentType.substring(start, end)).trim();
+        if (charset.length() > 1 && charset.charAt(0) == '"') {
+            charset = charset.substring(1, charset.length() - 1);
+        }
+        return charset.isEmpty() ? null : charset;
+    }
+}
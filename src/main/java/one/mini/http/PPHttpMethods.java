@@ -0,0 +1,56 @@
+package one.mini.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 常见的 method 和 version 直接复用常量，避免每个请求都 new String
+ */
+public class PPHttpMethods {
+
+    public static final String GET = "GET";
+    public static final String POST = "POST";
+    public static final String PUT = "PUT";
+    public static final String DELETE = "DELETE";
+    public static final String HEAD = "HEAD";
+    public static final String OPTIONS = "OPTIONS";
+    public static final String PATCH = "PATCH";
+    public static final String TRACE = "TRACE";
+    public static final String CONNECT = "CONNECT";
+
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+
+    private static final String[] METHODS = {GET, POST, PUT, DELETE, HEAD, OPTIONS, PATCH, TRACE, CONNECT};
+    private static final byte[][] METHOD_BYTES = toBytes(METHODS);
+
+    private static final String[] VERSIONS = {HTTP_1_1, HTTP_1_0};
+    private static final byte[][] VERSION_BYTES = toBytes(VERSIONS);
+
+    public static String lookup(byte[] raw, int start, int end) {
+        return find(METHODS, METHOD_BYTES, raw, start, end);
+    }
+
+    public static String lookupVersion(byte[] raw, int start, int end) {
+        return find(VERSIONS, VERSION_BYTES, raw, start, end);
+    }
+
+    private static String find(String[] names, byte[][] bytes, byte[] raw, int start, int end) {
+        int len = end - start;
+        for (int i = 0; i < bytes.length; i++) {
+            byte[] candidate = bytes[i];
+            if (candidate.length == len && Arrays.equals(candidate, 0, len, raw, start, end)) {
+                return names[i];
+            }
+        }
+        return null;
+    }
+
+    private static byte[][] toBytes(String[] names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
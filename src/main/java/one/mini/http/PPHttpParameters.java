@@ -0,0 +1,251 @@
+package one.mini.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 请求参数（query string + x-www-form-urlencoded 表单）的小型 multimap。
+ * <p>
+ * 建立索引时只记录每个 key/value 在原始字节中的位置，不做任何解码；
+ * getParameter 只解码被查到的那个 value，并缓存结果。大多数接口只读一两个参数，解码量和实际用到的参数成正比。
+ */
+public class PPHttpParameters {
+
+    /**
+     * 大多数请求的参数都不超过 8 个
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    private byte[][] sources = new byte[2][];
+    private Charset[] charsets = new Charset[2];
+    private int sourceCount;
+
+    /**
+     * 每个参数 4 个 int：source, keyStart, keyEnd(=valueStart-1 或没有 '=' 时的 valueEnd), valueEnd
+     */
+    private int[] index = new int[INITIAL_CAPACITY * 4];
+    private int count;
+
+    private String[] keys;
+    private String[] values;
+    private Map<String, String[]> map;
+
+    public void clear() {
+        Arrays.fill(sources, 0, sourceCount, null);
+        sourceCount = 0;
+        count = 0;
+        keys = null;
+        values = null;
+        map = null;
+    }
+
+    public void addQuery(PPHttpRequestHead head) {
+        if (head.hasQuery()) {
+            add(head.raw, head.queryStart, head.uriEnd, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 把 data[start, end) 按 a=1&amp;b=2 的格式切分并加入索引
+     */
+    public void add(byte[] data, int start, int end, Charset charset) {
+        if (sourceCount == sources.length) {
+            sources = Arrays.copyOf(sources, sourceCount << 1);
+            charsets = Arrays.copyOf(charsets, sourceCount << 1);
+        }
+        int source = sourceCount++;
+        sources[source] = data;
+        charsets[source] = charset;
+        int p = start;
+        while (p < end) {
+            int pairStart = p;
+            int eq = -1;
+            while (p < end && data[p] != '&') {
+                if (eq < 0 && data[p] == '=') {
+                    eq = p;
+                }
+                p++;
+            }
+            if (p > pairStart) {
+                append(source, pairStart, eq < 0 ? p : eq, p);
+            }
+            p++;
+        }
+    }
+
+    private void append(int source, int keyStart, int keyEnd, int valueEnd) {
+        int i = count << 2;
+        if (i + 4 > index.length) {
+            index = Arrays.copyOf(index, index.length << 1);
+        }
+        index[i] = source;
+        index[i + 1] = keyStart;
+        index[i + 2] = keyEnd;
+        index[i + 3] = valueEnd;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 第一个同名参数的值，没有返回 null
+     */
+    public String get(String name) {
+        int p = indexOf(name, 0);
+        return p < 0 ? null : value(p);
+    }
+
+    public String[] getAll(String name) {
+        int first = indexOf(name, 0);
+        if (first < 0) {
+            return null;
+        }
+        int n = 0;
+        for (int p = first; p >= 0; p = indexOf(name, p + 1)) {
+            n++;
+        }
+        String[] all = new String[n];
+        n = 0;
+        for (int p = first; p >= 0; p = indexOf(name, p + 1)) {
+            all[n++] = value(p);
+        }
+        return all;
+    }
+
+    public Enumeration<String> names() {
+        return Collections.enumeration(asMap().keySet());
+    }
+
+    /**
+     * 全部参数，第一次调用时解码所有 key/value 并缓存
+     */
+    public Map<String, String[]> asMap() {
+        if (null == map) {
+            Map<String, String[]> all = new LinkedHashMap<>(Math.max(INITIAL_CAPACITY, count * 2));
+            for (int p = 0; p < count; p++) {
+                String key = key(p);
+                if (!all.containsKey(key)) {
+                    all.put(key, getAll(key));
+                }
+            }
+            map = Collections.unmodifiableMap(all);
+        }
+        return map;
+    }
+
+    private int indexOf(String name, int from) {
+        for (int p = from; p < count; p++) {
+            if (keyEquals(p, name)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * key 没有被编码（不含 % 和 +）时直接按字节和 name 比较，不创建 String
+     */
+    private boolean keyEquals(int p, String name) {
+        if (null != keys && null != keys[p]) {
+            return keys[p].equals(name);
+        }
+        int i = p << 2;
+        byte[] data = sources[index[i]];
+        int start = index[i + 1];
+        int end = index[i + 2];
+        if (end - start != name.length()) {
+            // 长度不同时，只有编码过的或者非 ASCII 的 key 才可能相等
+            return needsDecoding(data, start, end) && key(p).equals(name);
+        }
+        for (int j = start; j < end; j++) {
+            byte b = data[j];
+            if (b == '%' || b == '+' || b < 0) {
+                return key(p).equals(name);
+            }
+            if (b != name.charAt(j - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String key(int p) {
+        if (null == keys) {
+            keys = new String[Math.max(count, INITIAL_CAPACITY)];
+        }
+        String key = keys[p];
+        if (null == key) {
+            int i = p << 2;
+            key = keys[p] = decode(sources[index[i]], index[i + 1], index[i + 2], charsets[index[i]]);
+        }
+        return key;
+    }
+
+    private String value(int p) {
+        if (null == values) {
+            values = new String[Math.max(count, INITIAL_CAPACITY)];
+        }
+        String value = values[p];
+        if (null == value) {
+            int i = p << 2;
+            int keyEnd = index[i + 2];
+            int valueEnd = index[i + 3];
+            value = values[p] = keyEnd == valueEnd ? "" : decode(sources[index[i]], keyEnd + 1, valueEnd, charsets[index[i]]);
+        }
+        return value;
+    }
+
+    private static boolean needsDecoding(byte[] data, int start, int end) {
+        for (int j = start; j < end; j++) {
+            if (data[j] == '%' || data[j] == '+' || data[j] < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEncoded(byte[] data, int start, int end) {
+        for (int j = start; j < end; j++) {
+            if (data[j] == '%' || data[j] == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * application/x-www-form-urlencoded 解码，非法的 %xx 原样保留
+     */
+    public static String decode(byte[] data, int start, int end, Charset charset) {
+        if (!isEncoded(data, start, end)) {
+            return new String(data, start, end - start, charset);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+        for (int j = start; j < end; j++) {
+            byte b = data[j];
+            if (b == '+') {
+                out.write(' ');
+            } else if (b == '%' && j + 2 < end) {
+                int hi = Character.digit(data[j + 1], 16);
+                int lo = Character.digit(data[j + 2], 16);
+                if (hi < 0 || lo < 0) {
+                    out.write(b);
+                } else {
+                    out.write((hi << 4) | lo);
+                    j += 2;
+                }
+            } else {
+                out.write(b);
+            }
+        }
+        return out.toString(charset);
+    }
+}
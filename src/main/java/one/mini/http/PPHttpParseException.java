@@ -0,0 +1,21 @@
+package one.mini.http;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * 请求报文格式错误，status 为应该返回给客户端的状态码
+ */
+public class PPHttpParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    @Getter
+    private final int status;
+
+    public PPHttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
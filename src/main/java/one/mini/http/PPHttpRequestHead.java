@@ -0,0 +1,139 @@
+package one.mini.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 请求行和请求头的原始字节。
+ * 解析器只记录 method/uri/version/header 在 raw 中的偏移量，对应的 String 在第一次访问时才创建。
+ */
+public class PPHttpRequestHead {
+
+    private static final int INITIAL_SIZE = 512;
+    /**
+     * 复用时保留的 raw 最大长度，偶尔出现的超大请求头不会一直占着内存
+     */
+    private static final int MAX_RETAINED_SIZE = 8 * 1024;
+
+    byte[] raw = new byte[INITIAL_SIZE];
+    int length;
+
+    int methodStart;
+    int methodEnd;
+    int uriStart;
+    int uriEnd;
+    /**
+     * '?' 之后的第一个字节，没有 query string 时为 -1
+     */
+    int queryStart = -1;
+    int versionStart;
+    int versionEnd;
+
+    final PPHttpHeaders headers = new PPHttpHeaders(this);
+
+    private String method;
+    private String uri;
+    private String path;
+    private String queryString;
+    private String protocol;
+
+    public void clear() {
+        if (raw.length > MAX_RETAINED_SIZE) {
+            raw = new byte[INITIAL_SIZE];
+        }
+        length = 0;
+        methodStart = methodEnd = 0;
+        uriStart = uriEnd = 0;
+        queryStart = -1;
+        versionStart = versionEnd = 0;
+        headers.clear();
+        method = null;
+        uri = null;
+        path = null;
+        queryString = null;
+        protocol = null;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > raw.length) {
+            byte[] bigger = new byte[Math.max(capacity, raw.length << 1)];
+            System.arraycopy(raw, 0, bigger, 0, length);
+            raw = bigger;
+        }
+    }
+
+    public String method() {
+        if (null == method) {
+            method = PPHttpMethods.lookup(raw, methodStart, methodEnd);
+            if (null == method) {
+                method = ascii(methodStart, methodEnd);
+            }
+        }
+        return method;
+    }
+
+    public String uri() {
+        if (null == uri) {
+            uri = ascii(uriStart, uriEnd);
+        }
+        return uri;
+    }
+
+    /**
+     * 请求目标中 '?' 之前的部分
+     */
+    public String path() {
+        if (null == path) {
+            path = queryStart < 0 ? uri() : ascii(uriStart, queryStart - 1);
+        }
+        return path;
+    }
+
+    /**
+     * '?' 之后的原始 query string（未解码），没有返回 null
+     */
+    public String queryString() {
+        if (null == queryString && queryStart >= 0) {
+            queryString = ascii(queryStart, uriEnd);
+        }
+        return queryString;
+    }
+
+    public boolean hasQuery() {
+        return queryStart >= 0 && queryStart < uriEnd;
+    }
+
+    public String protocol() {
+        if (null == protocol) {
+            protocol = PPHttpMethods.lookupVersion(raw, versionStart, versionEnd);
+            if (null == protocol) {
+                protocol = ascii(versionStart, versionEnd);
+            }
+        }
+        return protocol;
+    }
+
+    /**
+     * HTTP/1.1 (或更高) 返回 true，HTTP/1.0 返回 false
+     */
+    public boolean isHttp11() {
+        return versionEnd - versionStart == 8 && raw[versionStart + 5] == '1' && raw[versionStart + 7] != '0';
+    }
+
+    /**
+     * HTTP/1.1 默认长连接，除非带了 Connection: close；HTTP/1.0 需要显式的 Connection: keep-alive
+     */
+    public boolean isKeepAlive() {
+        if (isHttp11()) {
+            return !headers.containsToken("Connection", "close");
+        }
+        return headers.containsToken("Connection", "keep-alive");
+    }
+
+    public PPHttpHeaders headers() {
+        return headers;
+    }
+
+    String ascii(int start, int end) {
+        return new String(raw, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
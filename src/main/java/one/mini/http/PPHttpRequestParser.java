@@ -0,0 +1,265 @@
+package one.mini.http;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 可重入的 HTTP/1.1 请求头解析器。
+ * <p>
+ * 每次 parse 只把新到达的字节拷贝到 {@link PPHttpRequestHead#raw} 里，从上次停下的位置继续扫描，
+ * 因此请求头被拆成多次 read 也没关系。解析完成后，输入中请求头之后的字节（请求体、下一个 pipeline 请求）
+ * 会原样留在 ByteBuffer/ByteBuf 中。
+ */
+public class PPHttpRequestParser {
+
+    public static final int DEFAULT_MAX_HEAD_SIZE = 8192;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HT = '\t';
+
+    private static final boolean[] TOKEN = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) TOKEN[c] = true;
+        for (char c = 'a'; c <= 'z'; c++) TOKEN[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) TOKEN[c] = true;
+        for (char c : "!#$%&'*+-.^_`|~".toCharArray()) TOKEN[c] = true;
+    }
+
+    private enum State {
+        SKIP_EMPTY_LINES,
+        METHOD,
+        URI,
+        VERSION,
+        REQUEST_LINE_LF,
+        HEADER_START,
+        HEADER_NAME,
+        HEADER_VALUE_START,
+        HEADER_VALUE,
+        HEADER_LINE_LF,
+        HEAD_END_LF,
+        DONE
+    }
+
+    private final int maxHeadSize;
+
+    private PPHttpRequestHead head;
+    private State state = State.SKIP_EMPTY_LINES;
+    private int scanPos;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    public PPHttpRequestParser() {
+        this(DEFAULT_MAX_HEAD_SIZE);
+    }
+
+    public PPHttpRequestParser(int maxHeadSize) {
+        this.maxHeadSize = maxHeadSize;
+    }
+
+    /**
+     * 开始解析一个新的请求，结果写入 head
+     */
+    public void reset(PPHttpRequestHead head) {
+        head.clear();
+        this.head = head;
+        this.state = State.SKIP_EMPTY_LINES;
+        this.scanPos = 0;
+    }
+
+    public PPHttpRequestHead head() {
+        return head;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * 消费 in 中的字节，请求头完整时返回 true，in 的 position 停在请求头之后
+     */
+    public boolean parse(ByteBuffer in) throws PPHttpParseException {
+        int n = reserve(in.remaining());
+        in.get(head.raw, head.length, n);
+        head.length += n;
+        int overshoot = scan();
+        if (overshoot < 0) {
+            return false;
+        }
+        in.position(in.position() - overshoot);
+        return true;
+    }
+
+    /**
+     * 同 {@link #parse(ByteBuffer)}，readerIndex 停在请求头之后
+     */
+    public boolean parse(ByteBuf in) throws PPHttpParseException {
+        int n = reserve(in.readableBytes());
+        in.readBytes(head.raw, head.length, n);
+        head.length += n;
+        int overshoot = scan();
+        if (overshoot < 0) {
+            return false;
+        }
+        in.readerIndex(in.readerIndex() - overshoot);
+        return true;
+    }
+
+    private int reserve(int available) throws PPHttpParseException {
+        if (state == State.DONE) {
+            return 0;
+        }
+        int n = Math.min(available, maxHeadSize - head.length);
+        if (n <= 0 && available > 0) {
+            throw new PPHttpParseException(431, "request head larger than " + maxHeadSize + " bytes");
+        }
+        head.ensureCapacity(head.length + n);
+        return n;
+    }
+
+    /**
+     * 从 scanPos 继续扫描，完成时返回多拷贝进来的（不属于请求头的）字节数，未完成返回 -1
+     */
+    private int scan() throws PPHttpParseException {
+        if (state == State.DONE) {
+            return 0;
+        }
+        byte[] raw = head.raw;
+        int limit = head.length;
+        int i = scanPos;
+        for (; i < limit; i++) {
+            byte b = raw[i];
+            switch (state) {
+                case SKIP_EMPTY_LINES:
+                    if (b == CR || b == LF) {
+                        break;
+                    }
+                    head.methodStart = i;
+                    state = State.METHOD;
+                    // fall through
+                case METHOD:
+                    if (b == SP) {
+                        if (i == head.methodStart) {
+                            throw badRequest("empty method");
+                        }
+                        head.methodEnd = i;
+                        head.uriStart = i + 1;
+                        state = State.URI;
+                    } else if (!isToken(b)) {
+                        throw badRequest("illegal character in method");
+                    }
+                    break;
+                case URI:
+                    if (b == SP) {
+                        if (i == head.uriStart) {
+                            throw badRequest("empty request target");
+                        }
+                        head.uriEnd = i;
+                        head.versionStart = i + 1;
+                        state = State.VERSION;
+                    } else if (b == '?') {
+                        if (head.queryStart < 0) {
+                            head.queryStart = i + 1;
+                        }
+                    } else if (b == CR || b == LF) {
+                        throw badRequest("missing http version");
+                    }
+                    break;
+                case VERSION:
+                    if (b == CR || b == LF) {
+                        head.versionEnd = i;
+                        checkVersion(raw);
+                        state = b == CR ? State.REQUEST_LINE_LF : State.HEADER_START;
+                    }
+                    break;
+                case REQUEST_LINE_LF:
+                case HEADER_LINE_LF:
+                    if (b != LF) {
+                        throw badRequest("CR without LF");
+                    }
+                    state = State.HEADER_START;
+                    break;
+                case HEADER_START:
+                    if (b == CR) {
+                        state = State.HEAD_END_LF;
+                        break;
+                    }
+                    if (b == LF) {
+                        return finish(i + 1, limit);
+                    }
+                    if (!isToken(b)) {
+                        // obs-fold 等非法的 header 行直接拒绝
+                        throw badRequest("illegal header line");
+                    }
+                    nameStart = i;
+                    state = State.HEADER_NAME;
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        nameEnd = i;
+                        state = State.HEADER_VALUE_START;
+                    } else if (!isToken(b)) {
+                        throw badRequest("illegal character in header name");
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (b == SP || b == HT) {
+                        break;
+                    }
+                    valueStart = i;
+                    valueEnd = i;
+                    state = State.HEADER_VALUE;
+                    // fall through
+                case HEADER_VALUE:
+                    if (b == CR || b == LF) {
+                        head.headers.add(nameStart, nameEnd, valueStart, valueEnd);
+                        state = b == CR ? State.HEADER_LINE_LF : State.HEADER_START;
+                    } else if (b != SP && b != HT) {
+                        valueEnd = i + 1;
+                    }
+                    break;
+                case HEAD_END_LF:
+                    if (b != LF) {
+                        throw badRequest("CR without LF");
+                    }
+                    return finish(i + 1, limit);
+                default:
+                    break;
+            }
+        }
+        scanPos = i;
+        return -1;
+    }
+
+    private int finish(int end, int limit) {
+        state = State.DONE;
+        head.length = end;
+        scanPos = end;
+        return limit - end;
+    }
+
+    private void checkVersion(byte[] raw) throws PPHttpParseException {
+        int start = head.versionStart;
+        if (head.versionEnd - start != 8
+                || raw[start] != 'H' || raw[start + 1] != 'T' || raw[start + 2] != 'T' || raw[start + 3] != 'P'
+                || raw[start + 4] != '/' || raw[start + 6] != '.') {
+            throw badRequest("unsupported http version");
+        }
+        if (raw[start + 5] != '1') {
+            throw new PPHttpParseException(505, "unsupported http version");
+        }
+    }
+
+    private static boolean isToken(byte b) {
+        return b > 0 && TOKEN[b];
+    }
+
+    private static PPHttpParseException badRequest(String message) {
+        return new PPHttpParseException(400, message);
+    }
+}
@@ -0,0 +1,307 @@
+package one.mini.http;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static one.mini.http.PPHttpCommonHeaders.COLON_SPACE;
+import static one.mini.http.PPHttpCommonHeaders.CONNECTION_CLOSE;
+import static one.mini.http.PPHttpCommonHeaders.CONNECTION_KEEP_ALIVE;
+import static one.mini.http.PPHttpCommonHeaders.CONTENT_LENGTH;
+import static one.mini.http.PPHttpCommonHeaders.CONTENT_TYPE;
+import static one.mini.http.PPHttpCommonHeaders.CRLF;
+import static one.mini.http.PPHttpCommonHeaders.TRANSFER_ENCODING_CHUNKED;
+
+/**
+ * 响应的状态行和响应头。
+ * <p>
+ * Content-Type、Content-Length 和 Connection 单独存放，编码时使用 {@link PPHttpCommonHeaders} 中预先编码好的字节；
+ * 其他响应头按添加顺序放在两个数组里，同名的头可以有多个。
+ */
+public class PPHttpResponseHead {
+
+    /**
+     * 大多数响应除了上面几个之外不超过 4 个响应头
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private int status = 200;
+    private String reason;
+    private String contentType;
+    private long contentLength = -1;
+    private boolean chunked;
+
+    /**
+     * 连接是否复用由服务器根据请求决定，servlet 也可以通过 Connection: close 要求关闭
+     */
+    private boolean keepAlive = true;
+    private boolean http10;
+
+    /**
+     * 压缩用到的请求信息，不会编码进响应头：客户端能接受的压缩方式，以及可以缓存压缩结果时的缓存 key
+     */
+    private String acceptEncoding;
+    private String cacheKey;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * 清空状态和响应头，连接相关的设置保留
+     */
+    public void clear() {
+        status = 200;
+        reason = null;
+        contentType = null;
+        contentLength = -1;
+        chunked = false;
+        Arrays.fill(names, 0, count, null);
+        Arrays.fill(values, 0, count, null);
+        count = 0;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return null == reason ? PPHttpStatus.reason(status) : reason;
+    }
+
+    public void setStatus(int status) {
+        setStatus(status, null);
+    }
+
+    public void setStatus(int status, String reason) {
+        this.status = status;
+        this.reason = reason;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * body 使用 chunked 编码，这时不写 Content-Length
+     */
+    public void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * HTTP/1.0 的连接默认不复用，要复用必须在响应里明确带上 Connection: keep-alive
+     */
+    public void setHttp10(boolean http10) {
+        this.http10 = http10;
+    }
+
+    public boolean isHttp10() {
+        return http10;
+    }
+
+    public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    public void setAcceptEncoding(String acceptEncoding) {
+        this.acceptEncoding = acceptEncoding;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String name(int i) {
+        return names[i];
+    }
+
+    public String value(int i) {
+        return values[i];
+    }
+
+    public int indexOf(String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    public String get(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : values[i];
+    }
+
+    public Collection<String> getAll(String name) {
+        List<String> all = new ArrayList<>(2);
+        for (int i = 0; i < count; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                all.add(values[i]);
+            }
+        }
+        return all;
+    }
+
+    public Collection<String> names() {
+        Set<String> all = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            all.add(names[i]);
+        }
+        return all;
+    }
+
+    /**
+     * 替换同名的响应头，原来有多个时只保留第一个的位置
+     */
+    public void set(String name, String value) {
+        int i = indexOf(name);
+        if (i < 0) {
+            add(name, value);
+            return;
+        }
+        values[i] = value;
+        remove(name, i + 1);
+    }
+
+    public void add(String name, String value) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count << 1);
+            values = Arrays.copyOf(values, count << 1);
+        }
+        names[count] = name;
+        values[count] = value;
+        count++;
+    }
+
+    public void remove(String name) {
+        remove(name, 0);
+    }
+
+    private void remove(String name, int from) {
+        int j = from;
+        for (int i = from; i < count; i++) {
+            if (!names[i].equalsIgnoreCase(name)) {
+                names[j] = names[i];
+                values[j] = values[i];
+                j++;
+            }
+        }
+        Arrays.fill(names, j, count, null);
+        Arrays.fill(values, j, count, null);
+        count = j;
+    }
+
+    /**
+     * 把状态行和响应头（包括结尾的空行）写进 out
+     */
+    public void encode(ByteBuf out) {
+        out.writeBytes(PPHttpStatus.statusLine(status, reason));
+        out.writeBytes(PPHttpCommonHeaders.dateLine());
+        if (null != contentType) {
+            byte[] line = PPHttpCommonHeaders.contentTypeLine(contentType);
+            if (null != line) {
+                out.writeBytes(line);
+            } else {
+                out.writeBytes(CONTENT_TYPE);
+                out.writeCharSequence(contentType, StandardCharsets.ISO_8859_1);
+                out.writeBytes(CRLF);
+            }
+        }
+        if (chunked) {
+            out.writeBytes(TRANSFER_ENCODING_CHUNKED);
+        } else if (contentLength >= 0) {
+            out.writeBytes(CONTENT_LENGTH);
+            writeDecimal(out, contentLength);
+            out.writeBytes(CRLF);
+        }
+        if (!keepAlive) {
+            out.writeBytes(CONNECTION_CLOSE);
+        } else if (http10) {
+            out.writeBytes(CONNECTION_KEEP_ALIVE);
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeCharSequence(names[i], StandardCharsets.ISO_8859_1);
+            out.writeBytes(COLON_SPACE);
+            out.writeCharSequence(values[i], StandardCharsets.ISO_8859_1);
+            out.writeBytes(CRLF);
+        }
+        out.writeBytes(CRLF);
+    }
+
+    /**
+     * 非负整数直接按 ASCII 数字写出，不经过 String
+     */
+    static void writeDecimal(ByteBuf out, long value) {
+        if (value < 10) {
+            out.writeByte('0' + (int) value);
+            return;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        int index = out.writerIndex() + digits;
+        out.ensureWritable(digits);
+        for (long v = value; v > 0; v /= 10) {
+            out.setByte(--index, '0' + (int) (v % 10));
+        }
+        out.writerIndex(out.writerIndex() + digits);
+    }
+
+    /**
+     * chunk 的长度行：十六进制长度 + CRLF
+     */
+    public static void writeChunkSize(ByteBuf out, int size) {
+        int digits = Math.max(1, (35 - Integer.numberOfLeadingZeros(size)) >> 2);
+        for (int shift = (digits - 1) << 2; shift >= 0; shift -= 4) {
+            out.writeByte(HEX[(size >>> shift) & 0xf]);
+        }
+        out.writeBytes(CRLF);
+    }
+}
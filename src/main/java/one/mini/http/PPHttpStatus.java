@@ -0,0 +1,93 @@
+package one.mini.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 状态码和原因短语，以及预先编码好的状态行（"HTTP/1.1 200 OK\r\n"）。
+ * 响应编码时直接拷贝这里的字节，不再每次拼字符串。
+ */
+public final class PPHttpStatus {
+
+    private static final int MAX_STATUS = 600;
+
+    private static final String[] REASONS = new String[MAX_STATUS];
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS][];
+
+    static {
+        reason(100, "Continue");
+        reason(101, "Switching Protocols");
+        reason(200, "OK");
+        reason(201, "Created");
+        reason(202, "Accepted");
+        reason(203, "Non-Authoritative Information");
+        reason(204, "No Content");
+        reason(205, "Reset Content");
+        reason(206, "Partial Content");
+        reason(300, "Multiple Choices");
+        reason(301, "Moved Permanently");
+        reason(302, "Found");
+        reason(303, "See Other");
+        reason(304, "Not Modified");
+        reason(307, "Temporary Redirect");
+        reason(308, "Permanent Redirect");
+        reason(400, "Bad Request");
+        reason(401, "Unauthorized");
+        reason(403, "Forbidden");
+        reason(404, "Not Found");
+        reason(405, "Method Not Allowed");
+        reason(406, "Not Acceptable");
+        reason(408, "Request Timeout");
+        reason(409, "Conflict");
+        reason(410, "Gone");
+        reason(411, "Length Required");
+        reason(412, "Precondition Failed");
+        reason(413, "Content Too Large");
+        reason(414, "URI Too Long");
+        reason(415, "Unsupported Media Type");
+        reason(416, "Range Not Satisfiable");
+        reason(417, "Expectation Failed");
+        reason(426, "Upgrade Required");
+        reason(429, "Too Many Requests");
+        reason(431, "Request Header Fields Too Large");
+        reason(500, "Internal Server Error");
+        reason(501, "Not Implemented");
+        reason(502, "Bad Gateway");
+        reason(503, "Service Unavailable");
+        reason(504, "Gateway Timeout");
+        reason(505, "HTTP Version Not Supported");
+    }
+
+    private PPHttpStatus() {
+    }
+
+    private static void reason(int status, String reason) {
+        REASONS[status] = reason;
+        STATUS_LINES[status] = encode(status, reason);
+    }
+
+    public static String reason(int status) {
+        String reason = status >= 0 && status < MAX_STATUS ? REASONS[status] : null;
+        return null == reason ? "Unknown" : reason;
+    }
+
+    /**
+     * 预先编码好的状态行，自定义原因短语或者不认识的状态码会现场编码
+     */
+    public static byte[] statusLine(int status, String reason) {
+        if (null == reason && status >= 0 && status < MAX_STATUS && null != STATUS_LINES[status]) {
+            return STATUS_LINES[status];
+        }
+        return encode(status, null == reason ? reason(status) : reason);
+    }
+
+    /**
+     * 1xx、204、304 的响应不能带 body
+     */
+    public static boolean hasBody(int status) {
+        return status >= 200 && status != 204 && status != 304;
+    }
+
+    private static byte[] encode(int status, String reason) {
+        return ("HTTP/1.1 " + status + " " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,78 @@
+package one.mini.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 同时处理的请求数上限，超过上限的请求立即返回 503，而不是在线程池的队列里无限排队。
+ * <p>
+ * limit 小于等于 0 表示不限制，只计数。
+ */
+public class PPInFlightLimiter {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4096;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    public PPInFlightLimiter(int limit) {
+        this.limit = limit;
+    }
+
+    public boolean tryAcquire() {
+        int max = limit;
+        if (max <= 0) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= max) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 先取 server 的再取 context 的，context 满了把 server 的还回去；任意一个为 null 时跳过
+     */
+    public static boolean tryAcquire(PPInFlightLimiter server, PPInFlightLimiter context) {
+        if (null != server && !server.tryAcquire()) {
+            return false;
+        }
+        if (null != context && !context.tryAcquire()) {
+            if (null != server) {
+                server.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public static void release(PPInFlightLimiter server, PPInFlightLimiter context) {
+        if (null != context) {
+            context.release();
+        }
+        if (null != server) {
+            server.release();
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+}
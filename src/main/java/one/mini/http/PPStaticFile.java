@@ -0,0 +1,137 @@
+package one.mini.http;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 一次静态文件请求的结果：文件的元数据，以及根据条件请求和 Range 算出来的状态码和要发送的区间。
+ * <p>
+ * 文件内容不经过堆内存，由各个引擎用 FileChannel.transferTo / DefaultFileRegion 直接从文件发到 socket。
+ */
+public class PPStaticFile {
+
+    private final Path path;
+    private final long length;
+    private final long lastModified;
+    private final String etag;
+    private final String contentType;
+
+    private int status = 200;
+    private long position;
+    private long count;
+    private boolean sendBody = true;
+
+    PPStaticFile(Path path, long length, long lastModified, String etag, String contentType) {
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.contentType = contentType;
+        this.count = length;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public String etag() {
+        return etag;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    /**
+     * 要发送的区间在文件中的起始位置和长度
+     */
+    public long position() {
+        return position;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * HEAD、304 和 416 只有响应头
+     */
+    public boolean hasBody() {
+        return sendBody && count > 0;
+    }
+
+    void notModified() {
+        status = 304;
+        sendBody = false;
+    }
+
+    void range(long position, long count) {
+        status = 206;
+        this.position = position;
+        this.count = count;
+    }
+
+    void rangeNotSatisfiable() {
+        status = 416;
+        count = 0;
+        sendBody = false;
+    }
+
+    void headOnly() {
+        sendBody = false;
+    }
+
+    /**
+     * 把状态码和响应头写进 head：Content-Length 是实际发送的长度，206 带上 Content-Range
+     */
+    public void prepare(PPHttpResponseHead head) {
+        head.setStatus(status);
+        head.set("ETag", etag);
+        head.set("Last-Modified", PPHttpDates.format(lastModified));
+        head.set("Accept-Ranges", "bytes");
+        if (status == 304) {
+            head.setContentLength(-1);
+            return;
+        }
+        if (status == 416) {
+            head.set("Content-Range", "bytes */" + length);
+            head.setContentLength(0);
+            return;
+        }
+        if (status == 206) {
+            head.set("Content-Range", "bytes " + position + "-" + (position + count - 1) + "/" + length);
+        }
+        head.setContentType(contentType);
+        head.setContentLength(count);
+    }
+
+    public FileChannel open() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * 把要发送的区间写进 target。target 是 SocketChannel 时 transferTo 走 sendfile，数据不进 JVM；
+     * 一次不一定能写完，循环到写完为止
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        try (FileChannel channel = open()) {
+            long position = this.position;
+            long remaining = count;
+            while (remaining > 0) {
+                long n = channel.transferTo(position, remaining, target);
+                if (n <= 0 && position >= channel.size()) {
+                    throw new IOException("file truncated while sending: " + path);
+                }
+                position += n;
+                remaining -= n;
+            }
+        }
+    }
+}
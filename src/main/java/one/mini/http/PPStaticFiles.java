@@ -0,0 +1,242 @@
+package one.mini.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 静态资源：把请求路径映射到 root 目录下的 .html/.css/.js/图片 等文件。
+ * <p>
+ * 支持 ETag/If-None-Match、Last-Modified/If-Modified-Since（304），以及单个区间的 Range/If-Range（206/416）。
+ * 多个区间的 Range 按规范可以忽略，直接返回整个文件。
+ */
+@Slf4j
+public class PPStaticFiles {
+
+    /**
+     * 文件扩展名对应的 Content-Type，只有这些文件会作为静态资源返回
+     */
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html;charset=UTF-8");
+        CONTENT_TYPES.put("htm", "text/html;charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css;charset=UTF-8");
+        CONTENT_TYPES.put("js", "text/javascript;charset=UTF-8");
+        CONTENT_TYPES.put("json", "application/json;charset=UTF-8");
+        CONTENT_TYPES.put("txt", "text/plain;charset=UTF-8");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("webp", "image/webp");
+    }
+
+    private final Path root;
+
+    public PPStaticFiles(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * 以 classpath 的根目录（target/classes）作为静态资源目录；从 jar 中启动时没有目录，返回 null
+     */
+    public static PPStaticFiles classpath() {
+        URL url = PPStaticFiles.class.getClassLoader().getResource("");
+        if (null == url || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new PPStaticFiles(Paths.get(url.toURI()));
+        } catch (URISyntaxException e) {
+            log.error("[server] - resolve static resource root error: {}", url, e);
+            return null;
+        }
+    }
+
+    /**
+     * 找到请求对应的文件并算出响应的状态和区间；不是 GET/HEAD、不是静态资源的扩展名或者文件不存在时返回 null
+     */
+    public PPStaticFile lookup(PPHttpRequestHead request) throws IOException {
+        String method = request.method();
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            return null;
+        }
+        String path = request.path();
+        String contentType = contentTypeOf(path);
+        if (null == contentType) {
+            return null;
+        }
+        Path file = resolve(path);
+        if (null == file) {
+            return null;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        long length = attributes.size();
+        // HTTP 日期只精确到秒，Last-Modified 和 If-Modified-Since 都按秒比较
+        long lastModified = attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        PPStaticFile staticFile = new PPStaticFile(file, length, lastModified, etag, contentType);
+        evaluate(request.headers(), staticFile, lastModified);
+        if (head) {
+            staticFile.headOnly();
+        }
+        return staticFile;
+    }
+
+    private static String contentTypeOf(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return null;
+        }
+        return CONTENT_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 解码后规范化，结果必须还在 root 下面，防止 ../ 访问到其他文件
+     */
+    private Path resolve(String path) {
+        String decoded;
+        try {
+            // 路径里的 '+' 就是 '+'，不是空格
+            decoded = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (decoded.indexOf('\0') >= 0) {
+            return null;
+        }
+        Path file = root.resolve(decoded.replaceFirst("^/+", "")).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    /**
+     * 先看 If-None-Match，没有再看 If-Modified-Since；需要返回完整内容时再处理 Range
+     */
+    private static void evaluate(PPHttpHeaders headers, PPStaticFile file, long lastModified) {
+        String ifNoneMatch = headers.get("If-None-Match");
+        if (null != ifNoneMatch) {
+            if (matches(ifNoneMatch, file.etag())) {
+                file.notModified();
+                return;
+            }
+        } else if (lastModified <= dateHeader(headers, "If-Modified-Since")) {
+            file.notModified();
+            return;
+        }
+        String range = headers.get("Range");
+        if (null == range || !ifRange(headers, file, lastModified)) {
+            return;
+        }
+        range(range.trim(), file);
+    }
+
+    /**
+     * If-None-Match 用弱比较，W/ 前缀不影响结果
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if ("*".equals(candidate)) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If-Range 里的 ETag 或者日期和文件当前的一致时 Range 才生效，否则返回整个文件
+     */
+    private static boolean ifRange(PPHttpHeaders headers, PPStaticFile file, long lastModified) {
+        String ifRange = headers.get("If-Range");
+        if (null == ifRange) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(file.etag());
+        }
+        return PPHttpDates.parse(ifRange) == lastModified;
+    }
+
+    /**
+     * 解析 bytes=start-end、bytes=start- 和 bytes=-suffix，格式不对或者有多个区间时忽略 Range
+     */
+    private static void range(String range, PPStaticFile file) {
+        if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) {
+            return;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return;
+        }
+        long length = file.length();
+        long start;
+        long end;
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    file.rangeNotSatisfiable();
+                    return;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+                if (end < start && start < length) {
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (start < 0) {
+            return;
+        }
+        if (start >= length) {
+            file.rangeNotSatisfiable();
+            return;
+        }
+        file.range(start, end - start + 1);
+    }
+
+    private static long dateHeader(PPHttpHeaders headers, String name) {
+        try {
+            return headers.getDate(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
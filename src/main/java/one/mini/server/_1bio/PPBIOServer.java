@@ -2,12 +2,16 @@ package one.mini.server._1bio;
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import one.mini.http.PPInFlightLimiter;
+import one.mini.http.PPStaticFiles;
 import one.mini.servlet.ServletRegistry;
 import one.mini.servlet.TestServlet;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @Data
@@ -16,6 +20,28 @@ public class PPBIOServer {
     private ServerSocket ss;
     private String host;
     private int port;
+    /**
+     * keep-alive 连接空闲多久关闭，以及一个连接最多处理多少个请求
+     */
+    private int keepAliveTimeoutSeconds = 20;
+    private int maxKeepAliveRequests = 100;
+    /**
+     * 没有 servlet 处理的请求到这里找静态文件，为 null 时不提供静态资源
+     */
+    private PPStaticFiles staticFiles = PPStaticFiles.classpath();
+    /**
+     * 为 true 时每个连接一个虚拟线程，否则使用固定大小的线程池；两种模式都最多同时处理 maxConnections 个连接
+     */
+    private boolean virtualThreads;
+    private int maxConnections = PPSocketHandler.DEFAULT_MAX_CONNECTIONS;
+    /**
+     * 同时处理的请求数上限，超过时直接返回 503
+     */
+    private int maxInFlightRequests = PPInFlightLimiter.DEFAULT_MAX_IN_FLIGHT;
+
+    private volatile PPSocketHandler socketHandler;
+    private volatile Thread acceptThread;
+    private volatile boolean stopping;
 
     public PPBIOServer(String host, int port) {
         this.host = host;
@@ -32,16 +58,40 @@ public class PPBIOServer {
     }
 
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket()) {
+        // 用阻塞模式的 ServerSocketChannel 接受连接，socket 带有 channel，静态文件可以用 transferTo
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            ServerSocket serverSocket = ssc.socket();
             serverSocket.bind(new java.net.InetSocketAddress(host, port), 128); // backlog 表示处理请求的队列长度
-            log.info("[server] - server started, host {} port {}", host, port);
+            log.info("[server] - server started, host {} port {} threads {} max connections {}",
+                    host, port, virtualThreads ? "virtual" : "pool", maxConnections);
             this.ss = serverSocket;
-            PPSocketHandler socketHandler = new PPSocketHandler();
+            PPSocketHandler socketHandler = this.socketHandler = new PPSocketHandler(keepAliveTimeoutSeconds * 1000, maxKeepAliveRequests, staticFiles,
+                    virtualThreads, maxConnections, maxInFlightRequests);
             initServletMapping();
-            while (true) {
-                Socket socket = serverSocket.accept();
-                log.info("[server] - client {}:{} connected", socket.getInetAddress(), socket.getPort());
-                socketHandler.handle(socket);
+            acceptThread = Thread.currentThread();
+            while (!stopping) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (stopping) {
+                        return;
+                    }
+                    throw e;
+                }
+                log.debug("[server] - client {}:{} connected", socket.getInetAddress(), socket.getPort());
+                try {
+                    socketHandler.handle(socket);
+                } catch (RejectedExecutionException e) {
+                    // stop 已经关闭了线程池
+                    socket.close();
+                    return;
+                } catch (InterruptedException e) {
+                    socket.close();
+                    Thread.currentThread().interrupt();
+                    socketHandler.shutdown();
+                    return;
+                }
                 /*OutputStream outputStream = socket.getOutputStream();
                 String response = """
                         HTTP/1.1 200 OK\r
@@ -57,6 +107,30 @@ public class PPBIOServer {
         }
     }
 
+    /**
+     * 优雅停机：关闭监听的端口不再接受连接，空闲的 keep-alive 连接立即关闭，
+     * 正在处理的请求最多等 timeoutMillis 完成，然后停止线程池。返回所有连接是否在超时之前排空
+     */
+    public boolean stop(long timeoutMillis) {
+        stopping = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        log.info("[server] - server stopping, port: {}", port);
+        close();
+        try {
+            Thread accept = acceptThread;
+            if (null != accept) {
+                accept.join(Math.max(1, timeoutMillis));
+            }
+            PPSocketHandler handler = socketHandler;
+            boolean drained = null == handler || handler.drain(Math.max(0, deadline - System.currentTimeMillis()));
+            log.info("[server] - server stopped, port: {}, drained: {}", port, drained);
+            return drained;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     public void close() {
         if (null != ss) {
             try {
@@ -69,6 +143,11 @@ public class PPBIOServer {
 
     public static void main(String[] args) {
         log.info("[main] ready to start server");
-        new PPBIOServer("localhost", 5555).startSync();
+        PPBIOServer server = new PPBIOServer("localhost", 5555);
+        // -Dpp.bio.virtualThreads=true 切换到每个连接一个虚拟线程
+        server.setVirtualThreads(Boolean.getBoolean("pp.bio.virtualThreads"));
+        server.setMaxConnections(Integer.getInteger("pp.bio.maxConnections", PPSocketHandler.DEFAULT_MAX_CONNECTIONS));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(30_000)));
+        server.startSync();
     }
 }
@@ -1,51 +1,249 @@
 package one.mini.server._1bio;
 
 import lombok.extern.slf4j.Slf4j;
+import one.mini.domain.AbstractPPResponse;
 import one.mini.domain.bio.PPRequest;
 import one.mini.domain.bio.PPResponse;
+import one.mini.http.PPCompressedCache;
+import one.mini.http.PPHttpCompressor;
+import one.mini.http.PPHttpContentEncoding;
+import one.mini.http.PPInFlightLimiter;
+import one.mini.http.PPStaticFile;
+import one.mini.http.PPStaticFiles;
 import one.mini.servlet.ServletRegistry;
+import one.mini.utils.InnerHTMLUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * BIO 引擎的连接处理：一个连接占用一个线程，阻塞地读请求、写响应。
+ * <p>
+ * 线程有两种来源，启动时选择：固定大小的平台线程池，或者每个连接一个虚拟线程。
+ * 虚拟线程在阻塞读写 socket 时会让出载体线程，大量空闲的 keep-alive 连接只占内存不占线程，
+ * 所以请求的读写路径上不能有 synchronized 里的阻塞操作，否则载体线程会被钉住。
+ * 两种模式下同时处理的连接数都不超过 maxConnections，达到上限后接受新连接的线程阻塞等待，新连接留在 backlog 里。
+ * <p>
+ * 线程池的等待队列是有界的，队列满时新连接直接收到 503 后关闭；同时处理的请求数超过 maxInFlightRequests 时也直接返回 503。
+ * <p>
+ * {@link #drain(long)} 优雅停机：在读下一个请求之前等待的连接立即关闭，正在处理的请求带上 Connection: close，完成后关闭。
+ */
 @Slf4j
 public class PPSocketHandler {
 
-    private static final ExecutorService EXECUTORS = Executors.newFixedThreadPool(20);
+    public static final int DEFAULT_POOL_SIZE = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    public static final int DEFAULT_POOL_QUEUE_SIZE = 256;
 
-    public void handle(Socket socket) {
-        EXECUTORS.execute(() -> doHandle(socket));
+    private final ExecutorService executor;
+    private final Semaphore connectionPermits;
+    private final PPInFlightLimiter inFlightLimiter;
+    /**
+     * 打开的连接，停机时关闭其中空闲的连接
+     */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean draining;
+
+    /**
+     * keep-alive 连接空闲多久关闭，以及一个连接最多处理多少个请求
+     */
+    private final int keepAliveTimeoutMillis;
+    private final int maxKeepAliveRequests;
+    /**
+     * 没有 servlet 处理的请求到这里找静态文件，为 null 时不提供静态资源
+     */
+    private final PPStaticFiles staticFiles;
+
+    public PPSocketHandler() {
+        this(20_000, 100, PPStaticFiles.classpath());
+    }
+
+    public PPSocketHandler(int keepAliveTimeoutMillis, int maxKeepAliveRequests, PPStaticFiles staticFiles) {
+        this(keepAliveTimeoutMillis, maxKeepAliveRequests, staticFiles, false, DEFAULT_MAX_CONNECTIONS, PPInFlightLimiter.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public PPSocketHandler(int keepAliveTimeoutMillis, int maxKeepAliveRequests, PPStaticFiles staticFiles,
+                           boolean virtualThreads, int maxConnections, int maxInFlightRequests) {
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        this.staticFiles = staticFiles;
+        this.executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pp-bio-", 0).factory())
+                : new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(DEFAULT_POOL_QUEUE_SIZE));
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.inFlightLimiter = new PPInFlightLimiter(maxInFlightRequests);
+    }
+
+    /**
+     * 在接受连接的线程上调用，连接数达到上限时阻塞到有连接关闭为止
+     */
+    public void handle(Socket socket) throws InterruptedException {
+        if (!connectionPermits.tryAcquire()) {
+            log.info("[server] - connection limit reached, waiting for a free slot");
+            connectionPermits.acquire();
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    doHandle(socket);
+                } finally {
+                    connectionPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            connectionPermits.release();
+            if (executor.isShutdown()) {
+                throw e;
+            }
+            log.debug("[server] - worker queue full, reject connection: {}", socket);
+            reject(socket);
+        }
+    }
+
+    /**
+     * 在接受连接的线程上直接写出 503 后关闭，几百字节的响应不会阻塞在 socket 的发送缓冲上
+     */
+    private void reject(Socket socket) {
+        try (socket) {
+            PPResponse response = new PPResponse(new BufferedOutputStream(socket.getOutputStream(), 512));
+            response.getHead().setKeepAlive(false);
+            response.send(InnerHTMLUtil.SERVICE_UNAVAILABLE_PAGE);
+        } catch (IOException e) {
+            log.debug("[server] - reject connection error: {}", e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
     }
 
+    /**
+     * 停止接受新连接之后调用：关闭空闲的连接，等正在处理的请求最多 timeoutMillis，超时后强制关闭剩下的连接。
+     * 返回所有连接是否在超时之前排空
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        draining = true;
+        executor.shutdown();
+        for (Connection connection : connections) {
+            if (!connection.busy) {
+                connection.close();
+            }
+        }
+        if (executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        log.info("[server] - {} connections not drained in {} ms, force close", connections.size(), timeoutMillis);
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+        return false;
+    }
+
+    /**
+     * 在同一个连接上循环处理请求，直到客户端关闭、空闲超时、不再 keep-alive 或者达到最大请求数。
+     * 读缓冲区在请求之间共用，pipeline 过来的下一个请求的字节不会丢失，请求按顺序处理、按顺序响应。
+     */
     public void doHandle(Socket socket) {
+        PPHttpCompressor compressor = new PPHttpCompressor(PPCompressedCache.SHARED);
+        Connection connection = new Connection(socket);
+        connections.add(connection);
+        try (socket) {
+            socket.setSoTimeout(keepAliveTimeoutMillis);
+            InputStream inputStream = socket.getInputStream();
+            // 响应头和 body 先写进缓冲，一个响应只 flush 一次
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), AbstractPPResponse.DEFAULT_BUFFER_SIZE);
+            // 由 ServerSocketChannel 接受的连接有 channel，静态文件可以 sendfile；否则退回到经过输出流拷贝
+            WritableByteChannel socketChannel = null != socket.getChannel() ? socket.getChannel() : Channels.newChannel(outputStream);
+            ByteBuffer readBuffer = ByteBuffer.allocate(PPRequest.DEFAULT_READ_BUFFER_SIZE).flip();
+            for (int served = 1; ; served++) {
+                // 先标记空闲再检查 draining，和 drain 的先设置 draining 再检查 busy 配对，两边至少有一边会关闭连接
+                connection.busy = false;
+                if (draining) {
+                    break;
+                }
+                PPRequest ppRequest = new PPRequest(inputStream, readBuffer);
+                connection.busy = true;
+                log.debug("[server] - processing request for client {}:{} method={} url={}", socket.getInetAddress(), socket.getPort(), ppRequest.getMethod(), ppRequest.getUrl());
+                PPResponse ppResponse = new PPResponse(outputStream, compressor);
+                ppResponse.getHead().setKeepAlive(ppRequest.getHead().isKeepAlive() && served < maxKeepAliveRequests && !draining);
+                ppResponse.getHead().setHttp10(!ppRequest.getHead().isHttp11());
+                ppResponse.getHead().setAcceptEncoding(PPHttpContentEncoding.negotiate(ppRequest.getHead()));
+                if (!inFlightLimiter.tryAcquire()) {
+                    log.debug("[server] - too many requests in flight, reject request: {} {}", ppRequest.getMethod(), ppRequest.getUrl());
+                    ppResponse.send(InnerHTMLUtil.SERVICE_UNAVAILABLE_PAGE);
+                    ppRequest.discardBody();
+                    if (!ppResponse.getHead().isKeepAlive()) {
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    if (!service(ppRequest, ppResponse, socketChannel)) {
+                        break;
+                    }
+                } finally {
+                    inFlightLimiter.release();
+                }
+            }
+        } catch (EOFException | SocketTimeoutException e) {
+            // 客户端关闭了连接或者 keep-alive 空闲超时
+            log.debug("[server] - client {}:{} closed: {}", socket.getInetAddress(), socket.getPort(), e.getMessage());
+        } catch (IOException e) {
+            if (draining) {
+                log.debug("[server] - client {}:{} closed on shutdown: {}", socket.getInetAddress(), socket.getPort(), e.getMessage());
+            } else {
+                log.error("[server] - process client request error", e);
+            }
+        } finally {
+            connections.remove(connection);
+            compressor.close();
+        }
+    }
+
+    /**
+     * 执行 servlet 并提交响应，返回连接是否还能复用
+     */
+    private boolean service(PPRequest ppRequest, PPResponse ppResponse, WritableByteChannel socketChannel) throws IOException {
         try {
-            PPRequest ppRequest = new PPRequest(socket.getInputStream());
-            log.info("[server] - processing request for client {}:{} method={} url={}", socket.getInetAddress(), socket.getPort(), ppRequest.getMethod(), ppRequest.getUrl());
-            OutputStream outputStream = socket.getOutputStream();
-            PPResponse ppResponse = new PPResponse(outputStream);
             String url = ppRequest.getUrl();
 
             // 3 使用 servlet
-            HttpServlet servlet = ServletRegistry.getServlet(url);
-            servlet.service(ppRequest, ppResponse);
-
-            // 2 抽象 request 和 response
-            /*if ("GET".equals(ppRequest.getMethod()) && url.endsWith(".html")) {
-                String classesPath = Objects.requireNonNull(getClass().getClassLoader().getResource("")).getPath();
-                byte[] bytes = Files.readAllBytes(Path.of(classesPath, url));
-                log.info("[server] - static file content: {}", new String(bytes, StandardCharsets.UTF_8));
-                // URL resource = getClass().getClassLoader().getResource(url);
-                // Files.readAllBytes(Path.of(resource.getPath()));
-                // String htmlFile = findMappingStaticsHtml(url);
-                ppResponse.write(InnerHTMLUtil.htmlResponse(new String(bytes, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+            HttpServlet servlet = ServletRegistry.route(ppRequest);
+            if (null == servlet && ppRequest.getRouteMatch().isMethodNotAllowed()) {
+                InnerHTMLUtil.methodNotAllowed(ppResponse, ppRequest.getRouteMatch().getAllow());
+            } else if (null == servlet) {
+                PPStaticFile file = null == staticFiles ? null : staticFiles.lookup(ppRequest.getHead());
+                if (null != file) {
+                    ppResponse.sendFile(file, socketChannel);
+                } else {
+                    ppResponse.send(InnerHTMLUtil.NOT_FOUND_PAGE);
+                }
             } else {
-                ppResponse.write(InnerHTMLUtil.httpResponse("hello from mini-puppy").getBytes(StandardCharsets.UTF_8));
-            }*/
+                ppResponse.getHead().setCacheKey(PPCompressedCache.keyFor(servlet, ppRequest.getHead()));
+                servlet.service(ppRequest, ppResponse);
+            }
+            ppResponse.finish();
 
             // 1 手动处理
             /*String response = """
@@ -56,14 +254,39 @@ public class PPSocketHandler {
             outputStream.write(response.getBytes(StandardCharsets.UTF_8));
             outputStream.flush();*/
 
-            socket.close();
-        } catch (IOException | ServletException e) {
+            return ppResponse.getHead().isKeepAlive();
+        } catch (ServletException | RuntimeException e) {
             log.error("[server] - process client request error", e);
+            if (!ppResponse.isCommitted()) {
+                ppResponse.reset();
+                ppResponse.setStatus(500);
+                ppResponse.getHead().setKeepAlive(false);
+                ppResponse.finish();
+            }
+            return false;
+        } finally {
+            ppRequest.discardBody();
         }
     }
 
-    public String findMappingStaticsHtml(String name) {
-        return "";
-    }
+    /**
+     * 一个打开的连接，busy 表示已经读到请求头、正在处理请求
+     */
+    private static final class Connection {
 
+        private final Socket socket;
+        private volatile boolean busy;
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("[server] - close connection error: {}", e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,335 @@
+package one.mini.server._2nio;
+
+import lombok.extern.slf4j.Slf4j;
+import one.mini.domain.nio.PPNIOOutputStream;
+import one.mini.http.PPCompressedCache;
+import one.mini.http.PPHttpBodyDecoder;
+import one.mini.http.PPHttpCompressor;
+import one.mini.http.PPHttpRequestHead;
+import one.mini.http.PPHttpRequestParser;
+import one.mini.http.PPStaticFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * attach 在 SelectionKey 上的连接状态，keep-alive 连接上的多个请求共用。
+ * <p>
+ * 读的一侧（读缓冲区、解析器、请求体累积）只在 selector 线程上访问；
+ * 发送队列由 worker 线程放入、selector 线程取出，用锁保护。同一时刻一个连接最多只有一个请求在 worker 上处理。
+ */
+@Slf4j
+public class PPNIOConnection {
+
+    /**
+     * 发送队列里积压超过这么多字节时，worker 写响应会阻塞，等 selector 线程发送掉一部分
+     */
+    static final int HIGH_WATER_MARK = 256 * 1024;
+
+    final PPNIOReactor reactor;
+    final SelectionKey key;
+
+    final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+    final PPHttpRequestParser parser = new PPHttpRequestParser();
+    PPHttpRequestHead head = new PPHttpRequestHead();
+
+    /**
+     * 正在接收的请求体，没有时为 null；收到的数据累积在 bodyBytes 里
+     */
+    PPHttpBodyDecoder body;
+    byte[] bodyBytes;
+    int bodyLength;
+
+    /**
+     * 已经处理的请求数
+     */
+    int served;
+
+    /**
+     * 有请求交给了 worker 还没有处理完（响应可能还在发送队列里）
+     */
+    boolean processing;
+
+    /**
+     * 最后一次收到数据的时间，selector 线程用它清理空闲连接
+     */
+    long lastActive = System.currentTimeMillis();
+
+    /**
+     * 连接上共用的压缩器，只在处理请求的 worker 线程上使用
+     */
+    final PPHttpCompressor compressor = new PPHttpCompressor(PPCompressedCache.SHARED);
+
+    final PPNIOOutputStream output = newOutput();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    private boolean completed;
+    private boolean keepAlive;
+    private boolean closed;
+    private boolean compressorClosed;
+
+    PPNIOConnection(PPNIOReactor reactor, SelectionKey key) {
+        this.reactor = reactor;
+        this.key = key;
+        parser.reset(head);
+    }
+
+    /**
+     * 写进这个连接发送队列的输出流。连接上的请求共用 {@link #output}，
+     * 异步请求超时后 servlet 可能还在用它，引擎改用一个新的输出流发送 500
+     */
+    PPNIOOutputStream newOutput() {
+        return new PPNIOOutputStream() {
+            @Override
+            protected void enqueue(ByteBuffer buffer) throws IOException {
+                PPNIOConnection.this.enqueue(buffer, buffer.remaining());
+            }
+
+            @Override
+            protected void enqueue(PPStaticFile file) throws IOException {
+                PPNIOConnection.this.enqueue(new FileTransfer(file.open(), file.position(), file.count()), 0);
+            }
+        };
+    }
+
+    /**
+     * 一个请求头解析完成，准备解析下一个
+     */
+    void next() {
+        head = new PPHttpRequestHead();
+        parser.reset(head);
+    }
+
+    /**
+     * 累积请求体，超过 maxBodySize 返回 false
+     */
+    boolean appendBody(ByteBuffer buffer, int n, int maxBodySize) {
+        if ((long) bodyLength + n > maxBodySize) {
+            return false;
+        }
+        if (null == bodyBytes) {
+            bodyBytes = new byte[Math.max(n, 1024)];
+        } else if (bodyLength + n > bodyBytes.length) {
+            bodyBytes = Arrays.copyOf(bodyBytes, (int) Math.min(maxBodySize, Math.max((long) bodyBytes.length << 1, bodyLength + n)));
+        }
+        buffer.get(bodyBytes, bodyLength, n);
+        bodyLength += n;
+        return true;
+    }
+
+    void resetBody() {
+        body = null;
+        bodyBytes = null;
+        bodyLength = 0;
+    }
+
+    /**
+     * worker 线程（或者 selector 线程自己）放入要发送的数据，然后通知 selector 线程发送
+     */
+    void enqueue(Object part, int size) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                release(part);
+                throw new IOException("connection closed");
+            }
+            pending.add(part);
+            pendingBytes += size;
+        } finally {
+            lock.unlock();
+        }
+        reactor.requestWrite(this);
+        if (reactor.inEventLoop()) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (pendingBytes > HIGH_WATER_MARK && !closed) {
+                drained.awaitUninterruptibly();
+            }
+            if (closed) {
+                throw new IOException("connection closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * worker 处理完一个请求，响应已经全部放进发送队列
+     */
+    void complete(boolean keepAlive) {
+        lock.lock();
+        try {
+            this.completed = true;
+            this.keepAlive = keepAlive;
+        } finally {
+            lock.unlock();
+        }
+        reactor.requestWrite(this);
+    }
+
+    /**
+     * selector 线程上调用：尽量把发送队列写进 socket。
+     * 返回 false 表示 socket 写满了，需要等 OP_WRITE；返回 true 表示队列已经写空
+     */
+    boolean flushPending(SocketChannel channel) throws IOException {
+        while (true) {
+            Object part;
+            lock.lock();
+            try {
+                part = pending.peek();
+                if (null == part) {
+                    return true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            long written;
+            boolean done;
+            if (part instanceof ByteBuffer buffer) {
+                written = channel.write(buffer);
+                done = !buffer.hasRemaining();
+            } else {
+                FileTransfer transfer = (FileTransfer) part;
+                written = 0;
+                done = transfer.transferTo(channel);
+            }
+            lock.lock();
+            try {
+                if (part instanceof ByteBuffer) {
+                    pendingBytes -= written;
+                }
+                if (done) {
+                    pending.poll();
+                    release(part);
+                }
+                if (pendingBytes <= HIGH_WATER_MARK) {
+                    drained.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!done) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * selector 线程上调用：队列已经写空之后，如果 worker 已经处理完请求，取走结果。
+     * 返回 null 表示请求还在处理
+     */
+    Boolean takeCompleted() {
+        lock.lock();
+        try {
+            if (!completed || !pending.isEmpty()) {
+                return null;
+            }
+            completed = false;
+            return keepAlive;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接关闭：唤醒等待发送的 worker，关闭还没发送的文件
+     */
+    void closed() {
+        lock.lock();
+        try {
+            closed = true;
+            Object part;
+            while (null != (part = pending.poll())) {
+                release(part);
+            }
+            pendingBytes = 0;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接关闭后释放压缩器：没有请求在处理时由 selector 线程释放，否则由处理请求的 worker 在结束时释放
+     */
+    void closeCompressor() {
+        lock.lock();
+        try {
+            if (!compressorClosed) {
+                compressorClosed = true;
+                compressor.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void release(Object part) {
+        if (part instanceof FileTransfer transfer) {
+            transfer.close();
+        }
+    }
+
+    /**
+     * 正在发送的静态文件，每次可写时从上次的位置继续 transferTo
+     */
+    private static class FileTransfer {
+
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        private FileTransfer(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.remaining = count;
+        }
+
+        /**
+         * 非阻塞的 socket 写满时 transferTo 返回 0，返回 false 等下一次 OP_WRITE
+         */
+        private boolean transferTo(SocketChannel channel) throws IOException {
+            while (remaining > 0) {
+                long n = file.transferTo(position, remaining, channel);
+                if (n <= 0) {
+                    if (position >= file.size()) {
+                        throw new IOException("file truncated while sending");
+                    }
+                    return false;
+                }
+                position += n;
+                remaining -= n;
+            }
+            return true;
+        }
+
+        private void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.error("[server] - close file channel error", e);
+            }
+        }
+    }
+}
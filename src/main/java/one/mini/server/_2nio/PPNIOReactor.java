@@ -0,0 +1,372 @@
+package one.mini.server._2nio;
+
+import lombok.extern.slf4j.Slf4j;
+import one.mini.domain.nio.PPNIORequest;
+import one.mini.http.PPHttpBodyDecoder;
+import one.mini.http.PPHttpParseException;
+import one.mini.http.PPHttpRequestHead;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 子 reactor：一个线程、一个 Selector，负责分给它的连接的所有读写。
+ * <p>
+ * 主 reactor 接受的连接通过 {@link #register(SocketChannel)} 放进注册队列并唤醒 selector，
+ * 由这个线程自己注册，避免 register 和 select 在 Selector 的锁上互相等待。
+ * worker 要发送数据时同样通过 {@link #requestWrite(PPNIOConnection)} 排队唤醒，socket 只在这个线程上读写。
+ * <p>
+ * 停机时 {@link #drain()}：没有请求在处理的连接立即关闭，正在处理的连接响应写完后关闭，不再读取新的请求。
+ */
+@Slf4j
+public class PPNIOReactor implements Runnable {
+
+    private static final ByteBuffer BAD_REQUEST = ByteBuffer.wrap(
+            "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+    private static final ByteBuffer PAYLOAD_TOO_LARGE = ByteBuffer.wrap(
+            "HTTP/1.1 413 Payload Too Large\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+    private static final ByteBuffer SERVICE_UNAVAILABLE = ByteBuffer.wrap(
+            "HTTP/1.1 503 Service Unavailable\r\nRetry-After: 1\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+    private static final ByteBuffer CONTINUE = ByteBuffer.wrap(
+            "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+    private final PPNIOServer server;
+    private final Selector selector;
+    private volatile Thread thread;
+
+    /**
+     * 主 reactor 接受的、等着注册到这个 selector 上的连接
+     */
+    private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+    /**
+     * worker 有数据要发送或者处理完了请求，等 selector 线程处理的连接
+     */
+    private final Queue<PPNIOConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    /**
+     * 当前的连接数，主 reactor 按它选择最空闲的子 reactor
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean draining;
+
+    PPNIOReactor(PPNIOServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    /**
+     * 主 reactor 线程上调用
+     */
+    void register(SocketChannel channel) {
+        connections.incrementAndGet();
+        registrations.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (!thread.isInterrupted()) {
+                processRegistrations();
+                processPendingWrites();
+                int select = selector.select(1000);
+                long now = System.currentTimeMillis();
+                if (draining || now - lastSweep >= 1000) {
+                    closeIdleConnections(now);
+                    lastSweep = now;
+                }
+                if (select == 0) continue;
+                Set<SelectionKey> selectionKeys = selector.selectedKeys();
+                Iterator<SelectionKey> iterator = selectionKeys.iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+                    if (!selectionKey.isValid()) {
+                        continue;
+                    }
+                    if (selectionKey.isWritable()) {
+                        handleWrite((PPNIOConnection) selectionKey.attachment());
+                    }
+                    if (selectionKey.isValid() && selectionKey.isReadable()) {
+                        handleRead((PPNIOConnection) selectionKey.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("[server] - reactor error", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof PPNIOConnection connection) {
+                    close(connection);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.error("[server] - close selector error", e);
+            }
+        }
+    }
+
+    private void processRegistrations() {
+        SocketChannel channel;
+        while (null != (channel = registrations.poll())) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new PPNIOConnection(this, key));
+                log.debug("[server] - client {} connected", channel);
+            } catch (IOException e) {
+                log.error("[server] - register channel error", e);
+                connections.decrementAndGet();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 已经出错的连接
+                }
+            }
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 任意线程调用，让 selector 线程去发送连接的发送队列
+     */
+    void requestWrite(PPNIOConnection connection) {
+        pendingWrites.add(connection);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    private void processPendingWrites() {
+        PPNIOConnection connection;
+        while (null != (connection = pendingWrites.poll())) {
+            if (connection.key.isValid()) {
+                handleWrite(connection);
+            }
+        }
+    }
+
+    /**
+     * 关闭空闲超过 keepAliveTimeoutSeconds 的连接，正在处理请求的连接不算空闲；排空时关闭所有空闲的连接
+     */
+    private void closeIdleConnections(long now) {
+        long timeout = draining ? 0 : server.getKeepAliveTimeoutSeconds() * 1000L;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof PPNIOConnection connection
+                    && !connection.processing && now - connection.lastActive >= timeout) {
+                log.debug("[server] - keep-alive connection idle, close channel: {}", key.channel());
+                close(connection);
+            }
+        }
+    }
+
+    private void close(PPNIOConnection connection) {
+        if (connection.key.isValid()) {
+            connections.decrementAndGet();
+        }
+        connection.key.cancel();
+        connection.closed();
+        if (!connection.processing) {
+            connection.closeCompressor();
+        }
+        try {
+            connection.key.channel().close();
+        } catch (IOException e) {
+            log.error("[server] - close channel error", e);
+        }
+    }
+
+    /**
+     * 读取数据并尝试解析出完整的请求，读缓冲区满了也没关系，解析器是增量的
+     */
+    private void handleRead(PPNIOConnection connection) {
+        SocketChannel clientChannel = (SocketChannel) connection.key.channel();
+        try {
+            ByteBuffer buffer = connection.readBuffer;
+            int readLen = clientChannel.read(buffer);
+            if (readLen == -1) {
+                log.debug("[server] - client {} closed", clientChannel);
+                close(connection);
+                return;
+            }
+            connection.lastActive = System.currentTimeMillis();
+            buffer.flip(); // 切换到读模式再读取数据
+            processBuffered(connection);
+            buffer.compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("[server] - handle READ event error", e);
+            close(connection);
+        }
+    }
+
+    /**
+     * 从读缓冲区（读模式）解析请求，一个请求收齐就交给 worker 并停止解析，剩下的字节留给下一个请求
+     */
+    private void processBuffered(PPNIOConnection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        try {
+            while (true) {
+                if (null != connection.body) {
+                    if (!readBody(connection)) {
+                        return;
+                    }
+                    dispatch(connection);
+                    return;
+                }
+                if (!buffer.hasRemaining() || !connection.parser.parse(buffer)) {
+                    return;
+                }
+                PPHttpRequestHead head = connection.head;
+                log.debug("[server] - received from client: {} {}", head.method(), head.uri());
+                connection.body = PPHttpBodyDecoder.of(head);
+                if (null == connection.body) {
+                    dispatch(connection);
+                    return;
+                }
+                if (head.headers().containsToken("Expect", "100-continue")) {
+                    connection.enqueue(CONTINUE.duplicate(), CONTINUE.remaining());
+                }
+            }
+        } catch (PPHttpParseException e) {
+            log.info("[server] - bad request from {}: {}", connection.key.channel(), e.getMessage());
+            reject(connection, BAD_REQUEST);
+        }
+    }
+
+    /**
+     * 把缓冲区里属于请求体的字节累积到连接上，返回请求体是否已经收齐
+     */
+    private boolean readBody(PPNIOConnection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        PPHttpBodyDecoder body = connection.body;
+        while (buffer.hasRemaining() && !body.isDone()) {
+            long available = body.available();
+            if (available > 0) {
+                int n = (int) Math.min(available, buffer.remaining());
+                if (!connection.appendBody(buffer, n, server.getMaxRequestBodySize())) {
+                    log.info("[server] - request body too large from {}", connection.key.channel());
+                    reject(connection, PAYLOAD_TOO_LARGE);
+                    return false;
+                }
+                body.consumed(n);
+            } else {
+                body.feed(buffer.get());
+            }
+        }
+        return body.isDone();
+    }
+
+    /**
+     * 请求无法处理：丢掉剩下的数据，发送固定的错误响应后关闭连接
+     */
+    private void reject(PPNIOConnection connection, ByteBuffer response) throws IOException {
+        connection.readBuffer.position(connection.readBuffer.limit());
+        connection.resetBody();
+        connection.processing = true;
+        connection.key.interestOps(0);
+        connection.enqueue(response.duplicate(), response.remaining());
+        connection.complete(false);
+    }
+
+    /**
+     * 请求收齐了：取消 OP_READ，交给 worker 执行 servlet
+     */
+    private void dispatch(PPNIOConnection connection) throws IOException {
+        PPHttpRequestHead head = connection.head;
+        PPNIORequest request = new PPNIORequest(head, connection.bodyBytes, connection.bodyLength);
+        connection.resetBody();
+        connection.next();
+        boolean keepAlive = head.isKeepAlive() && ++connection.served < server.getMaxKeepAliveRequests() && !draining;
+        connection.processing = true;
+        connection.key.interestOps(0);
+        if (!server.execute(connection, request, keepAlive)) {
+            log.debug("[server] - too many requests in flight, reject request: {} {}", head.method(), head.uri());
+            // 请求体已经收齐，连接可以继续复用
+            connection.enqueue(SERVICE_UNAVAILABLE.duplicate(), SERVICE_UNAVAILABLE.remaining());
+            connection.complete(keepAlive && head.isHttp11());
+        }
+    }
+
+    /**
+     * selector 线程上发送连接的发送队列：写不完注册 OP_WRITE；写完并且请求已经处理完时，
+     * 关闭连接或者恢复 OP_READ 继续处理下一个请求
+     */
+    private void handleWrite(PPNIOConnection connection) {
+        SelectionKey key = connection.key;
+        try {
+            if (!connection.flushPending((SocketChannel) key.channel())) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            Boolean keepAlive = connection.takeCompleted();
+            if (null == keepAlive) {
+                // 请求还在处理，等 worker 放入更多数据；还在接收请求体时（比如刚发完 100 Continue）继续读
+                key.interestOps(connection.processing ? 0 : SelectionKey.OP_READ);
+                return;
+            }
+            connection.processing = false;
+            if (!keepAlive || draining) {
+                log.debug("[server] - client {} closed", key.channel());
+                close(connection);
+                return;
+            }
+            connection.lastActive = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ);
+            // pipeline 过来的请求可能已经在读缓冲区里了
+            ByteBuffer buffer = connection.readBuffer;
+            buffer.flip();
+            processBuffered(connection);
+            buffer.compact();
+        } catch (IOException | RuntimeException e) {
+            log.debug("[server] - handle WRITE event error: {}", e.getMessage());
+            close(connection);
+        }
+    }
+
+    /**
+     * 任意线程调用，开始排空连接；连接数降到 0 后可以 close
+     */
+    void drain() {
+        draining = true;
+        selector.wakeup();
+    }
+
+    /**
+     * 停止这个 reactor，关闭它上面所有的连接
+     */
+    void close() {
+        if (null != thread) {
+            thread.interrupt();
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * 等 reactor 线程退出
+     */
+    void awaitTermination(long timeoutMillis) throws InterruptedException {
+        Thread t = thread;
+        if (null != t) {
+            t.join(Math.max(1, timeoutMillis));
+        }
+    }
+}
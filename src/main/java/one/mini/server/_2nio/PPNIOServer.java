@@ -2,25 +2,49 @@ package one.mini.server._2nio;
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import one.mini.domain.PPAsyncContext;
+import one.mini.domain.nio.PPNIORequest;
+import one.mini.domain.nio.PPNIOResponse;
+import one.mini.http.PPCompressedCache;
+import one.mini.http.PPHttpContentEncoding;
+import one.mini.http.PPInFlightLimiter;
+import one.mini.http.PPStaticFile;
+import one.mini.http.PPStaticFiles;
+import one.mini.servlet.PPAsyncServlet;
 import one.mini.servlet.ServletRegistry;
 import one.mini.servlet.TestServlet;
 import one.mini.utils.InnerHTMLUtil;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
 import java.io.IOException;
 import java.net.ServerSocket;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 主从 reactor：主 reactor（启动线程）的 Selector 只处理 accept，接受的连接交给 reactorCount 个子 reactor
+ * （{@link PPNIOReactor}），每个子 reactor 一个线程、一个 Selector，负责自己那部分连接的所有读写。
+ * 新连接分给当前连接数最少的子 reactor，连接数相同时轮流分配。servlet 在 worker 线程池上执行。
+ * <p>
+ * 一个连接的状态机：OP_READ 读取数据，累积到一个完整的请求（请求头 + 请求体）之后取消 OP_READ，交给 worker；
+ * worker 写的响应进入连接的发送队列，selector 线程尽量直接写出，写不完注册 OP_WRITE 等 socket 可写再继续；
+ * 请求处理完并且响应全部写出后，keep-alive 的连接恢复 OP_READ，先处理读缓冲区里已经收到的 pipeline 请求。
+ * <p>
+ * servlet 可以通过 startAsync 或者 PPAsyncServlet 异步处理，这时 worker 线程立即返回，连接保持等待，异步完成时提交响应。
+ * <p>
+ * 交给 worker 的请求数不超过 maxInFlightRequests，超过时子 reactor 直接返回 503，worker 线程池的队列不会无限增长。
+ * <p>
+ * {@link #stop(long)} 优雅停机：主 reactor 不再接受连接，子 reactor 排空连接，最后停止子 reactor 和 worker 线程池。
+ */
 @Slf4j
 @Data
 public class PPNIOServer {
@@ -28,8 +52,35 @@ public class PPNIOServer {
     private ServerSocket ss;
     private String host;
     private int port;
+    /**
+     * keep-alive 连接空闲多久关闭，以及一个连接最多处理多少个请求
+     */
+    private int keepAliveTimeoutSeconds = 20;
+    private int maxKeepAliveRequests = 100;
+    /**
+     * 请求体在 selector 线程上收齐之后才交给 servlet，所以要限制大小
+     */
+    private int maxRequestBodySize = 8 * 1024 * 1024;
+    /**
+     * 静态文件目录，为 null 时不提供静态资源
+     */
+    private PPStaticFiles staticFiles = PPStaticFiles.classpath();
+    /**
+     * 子 reactor 的数量，默认每个核一个
+     */
+    private int reactorCount = Runtime.getRuntime().availableProcessors();
+    /**
+     * 同时处理的请求数上限，超过时直接返回 503
+     */
+    private int maxInFlightRequests = PPInFlightLimiter.DEFAULT_MAX_IN_FLIGHT;
+    private PPInFlightLimiter inFlightLimiter;
 
     private Selector selector;
+    private PPNIOReactor[] reactors;
+    private int nextReactor;
+    private ExecutorService executor;
+    private volatile Thread acceptThread;
+    private volatile boolean stopping;
 
     public PPNIOServer(String host, int port) {
         this.host = host;
@@ -50,12 +101,16 @@ public class PPNIOServer {
             ssc.bind(new java.net.InetSocketAddress(host, port), 128); // backlog 表示处理请求的队列长度
             ssc.configureBlocking(false);
 
+            inFlightLimiter = new PPInFlightLimiter(maxInFlightRequests);
+            executor = Executors.newFixedThreadPool(32);
             selector = Selector.open();
             ssc.register(selector, SelectionKey.OP_ACCEPT);
+            acceptThread = Thread.currentThread();
+            startReactors();
 
-            log.info("[server] - server started, host {} port {}", host, port);
+            log.info("[server] - server started, host {} port {} reactors {}", host, port, reactors.length);
             initServletMapping();
-            while (true) {
+            while (!stopping) {
                 int select = selector.select();
                 if (select == 0) continue;
                 Set<SelectionKey> selectionKeys = selector.selectedKeys();
@@ -63,102 +118,257 @@ public class PPNIOServer {
                 while (iterator.hasNext()) {
                     SelectionKey selectionKey = iterator.next();
                     iterator.remove();
-                    if (selectionKey.isAcceptable()) {
+                    if (selectionKey.isValid() && selectionKey.isAcceptable()) {
                         handleAccept(selectionKey);
                     }
-                    if (selectionKey.isReadable()) {
-                        handleReadAsync(selectionKey);
-                    }
                 }
             }
         } catch (IOException e) {
             log.error("[server] - start error", e);
+        } finally {
+            closeSelector();
+            // stop 负责排空连接之后再停止子 reactor
+            if (!stopping) {
+                stopReactors();
+                if (null != executor) {
+                    executor.shutdown();
+                }
+            }
         }
     }
 
-    private static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(32);
+    private void closeSelector() {
+        if (null != selector) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.error("[server] - close selector error", e);
+            }
+        }
+    }
 
-    public void handleAccept(SelectionKey selectionKey) {
+    /**
+     * 优雅停机：主 reactor 关闭监听的端口，子 reactor 立即关闭空闲的 keep-alive 连接，
+     * 正在处理的请求最多等 timeoutMillis 完成，然后停止子 reactor 和 worker 线程池。返回所有连接是否在超时之前排空
+     */
+    public boolean stop(long timeoutMillis) {
+        stopping = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        log.info("[server] - server stopping, port: {}", port);
         try {
-            ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
-            SocketChannel clientChannel = serverSocketChannel.accept();
-            clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ);
-            log.info("[server] - client {} connected", clientChannel);
-        } catch (IOException e) {
-            log.error("[server] - handle ACCEPT event error", e);
+            Thread accept = acceptThread;
+            if (null != accept) {
+                selector.wakeup();
+                accept.join(Math.max(1, timeoutMillis));
+            }
+            PPNIOReactor[] all = null == reactors ? new PPNIOReactor[0] : reactors;
+            for (PPNIOReactor reactor : all) {
+                reactor.drain();
+            }
+            boolean drained = awaitDrained(all, deadline);
+            if (!drained) {
+                log.info("[server] - connections not drained in {} ms, force close", timeoutMillis);
+            }
+            stopReactors();
+            for (PPNIOReactor reactor : all) {
+                reactor.awaitTermination(deadline - System.currentTimeMillis());
+            }
+            if (null != executor) {
+                executor.shutdown();
+                if (!executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                    drained = false;
+                }
+            }
+            log.info("[server] - server stopped, port: {}, drained: {}", port, drained);
+            return drained;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopReactors();
+            if (null != executor) {
+                executor.shutdownNow();
+            }
+            return false;
         }
     }
 
-    public void handleReadAsync(SelectionKey selectionKey) throws IOException {
-        EXECUTOR_SERVICE.execute(() -> {
+    /**
+     * 子 reactor 上的连接都关闭了就算排空，连接只由子 reactor 线程关闭，这里轮询连接数
+     */
+    private static boolean awaitDrained(PPNIOReactor[] reactors, long deadline) throws InterruptedException {
+        while (true) {
+            int open = 0;
+            for (PPNIOReactor reactor : reactors) {
+                open += reactor.connections();
+            }
+            if (open == 0) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void startReactors() throws IOException {
+        reactors = new PPNIOReactor[Math.max(1, reactorCount)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new PPNIOReactor(this);
+            Thread thread = new Thread(reactors[i], "pp-nio-reactor-" + i);
+            thread.start();
+        }
+    }
+
+    private void stopReactors() {
+        if (null != reactors) {
+            for (PPNIOReactor reactor : reactors) {
+                reactor.close();
+            }
+        }
+    }
+
+    /**
+     * 一次把 backlog 里的连接都接受完，每个连接分给连接数最少的子 reactor
+     */
+    public void handleAccept(SelectionKey selectionKey) {
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
+        while (true) {
             try {
-                SocketChannel clientChannel = (SocketChannel) selectionKey.channel();
-                ByteBuffer buffer = ByteBuffer.allocate(1024);
-                if (null == clientChannel) return;
-                int readLen = clientChannel.read(buffer);
-
-                /*StringBuilder sb = new StringBuilder();
-                int receivedLen = 0;
-                while (readLen > 0) {
-                    receivedLen += readLen;
-                    buffer.flip(); // 切换到读模式再读取数据
-                    while (buffer.hasRemaining()) {
-                        sb.append(Charset.defaultCharset().decode(buffer));
-                    }
-                    buffer.clear();
-                    readLen = clientChannel.read(buffer);
-                }
-                TimeUnit.MILLISECONDS.sleep(10);
-                log.info("[server] - received DONE");
-                clientChannel.close();
-                log.info("[server] - client {} closed", clientChannel);
-                log.info("[server] - received from client len: {} content: {}", receivedLen, sb);*/
-
-                if (readLen > 0) {
-                    buffer.flip(); // 切换到读模式再读取数据
-                    String readableContent = Charset.defaultCharset().decode(buffer).toString();
-                    log.info("[server] - received from client: {}", readableContent);
-                    /*String[] lines = readableContent.split("\n");
-                    String[] line = lines[0].split(" ");
-                    String method = line[0];
-                    String url = line[1];
-                    // 拿到这些信息之后就可以和之前一样根据 url 处理 servlet
-                    */
-                    clientChannel.write(ByteBuffer.wrap(InnerHTMLUtil.htmlResponse("hello from mini-puppy server based on nio").getBytes(StandardCharsets.UTF_8)));
-                    TimeUnit.MILLISECONDS.sleep(100);
-                    log.info("[server] - received DONE");
-                    clientChannel.close();
-                    log.info("[server] - client {} closed", clientChannel);
+                SocketChannel clientChannel = serverSocketChannel.accept();
+                if (null == clientChannel) {
+                    return;
                 }
+                nextReactor().register(clientChannel);
+            } catch (IOException e) {
+                log.error("[server] - handle ACCEPT event error", e);
+                return;
+            }
+        }
+    }
 
-            } catch (IOException | RuntimeException | InterruptedException e) {
-                log.error("[server] - handle READ event error", e);
+    /**
+     * 从上一次分配的下一个开始找连接数最少的，连接数相同时相当于轮询
+     */
+    private PPNIOReactor nextReactor() {
+        int n = reactors.length;
+        int start = nextReactor;
+        PPNIOReactor best = reactors[start];
+        int bestIndex = start;
+        for (int i = 1; i < n; i++) {
+            int index = (start + i) % n;
+            if (reactors[index].connections() < best.connections()) {
+                best = reactors[index];
+                bestIndex = index;
             }
-        });
+        }
+        nextReactor = (bestIndex + 1) % n;
+        return best;
     }
 
-    public void handleRead(SelectionKey selectionKey) throws IOException {
+    /**
+     * 子 reactor 收齐一个请求后调用，在 worker 线程池上执行 servlet；同时处理的请求太多时返回 false，由子 reactor 返回 503
+     */
+    boolean execute(PPNIOConnection connection, PPNIORequest request, boolean keepAlive) {
+        if (!inFlightLimiter.tryAcquire()) {
+            return false;
+        }
         try {
-            SocketChannel clientChannel = (SocketChannel) selectionKey.channel();
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            int readLen = clientChannel.read(buffer);
-            if (readLen > 0) {
-                buffer.flip(); // 切换到读模式再读取数据
-                log.info("[server] - received from client: {}", Charset.defaultCharset().decode(buffer));
-                clientChannel.write(ByteBuffer.wrap(InnerHTMLUtil.htmlResponse("hello from mini-puppy server based on nio").getBytes(StandardCharsets.UTF_8)));
+            executor.execute(() -> service(connection, request, keepAlive));
+        } catch (RejectedExecutionException e) {
+            inFlightLimiter.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * worker 线程上执行：servlet 写的响应通过连接的输出流进入发送队列。
+     * servlet 开始了异步处理时直接返回，worker 线程不再等待，异步完成的线程负责提交响应和结束请求
+     */
+    private void service(PPNIOConnection connection, PPNIORequest request, boolean keepAlive) {
+        PPNIOResponse response = new PPNIOResponse(connection.output, connection.compressor);
+        response.getHead().setKeepAlive(keepAlive);
+        response.getHead().setHttp10(!request.getHead().isHttp11());
+        response.getHead().setAcceptEncoding(PPHttpContentEncoding.negotiate(request.getHead()));
+        Exception failure = null;
+        try {
+            String url = request.getUrl();
+            HttpServlet servlet = ServletRegistry.route(request);
+            if ("/".equals(url)) {
+                response.send(InnerHTMLUtil.WELCOME_PAGE);
+            } else if (null != servlet) {
+                response.getHead().setCacheKey(PPCompressedCache.keyFor(servlet, request.getHead()));
+                PPAsyncServlet.service(servlet, request, response);
+            } else if (request.getRouteMatch().isMethodNotAllowed()) {
+                InnerHTMLUtil.methodNotAllowed(response, request.getRouteMatch().getAllow());
             } else {
-                clientChannel.close();
-                log.info("[server] - client {} closed", clientChannel);
+                PPStaticFile file = null == staticFiles ? null : staticFiles.lookup(request.getHead());
+                if (null != file) {
+                    response.sendFile(file);
+                } else {
+                    response.send(InnerHTMLUtil.NOT_FOUND_PAGE);
+                }
             }
+        } catch (ServletException | IOException | RuntimeException e) {
+            failure = e;
+        }
+        if (null == failure && request.isAsyncStarted()) {
+            PPAsyncContext async = request.getAsyncContext();
+            async.dispatched(cause -> finish(connection, response, cause, async));
+            return;
+        }
+        finish(connection, response, failure, null);
+    }
 
+    /**
+     * 提交响应，把结果交给子 reactor，并释放 in-flight 名额；失败时响应还没提交就返回 500，连接都不再复用。
+     * 异步请求超时时 servlet 还可能在写 response 和连接共用的输出流，这时放弃 response，500 用新的输出流发送，
+     * 连接共用的压缩器等 servlet complete 或 fail 之后再释放
+     */
+    private void finish(PPNIOConnection connection, PPNIOResponse response, Throwable failure, PPAsyncContext async) {
+        boolean reuse = false;
+        boolean timedOut = null != async && async.isTimedOut();
+        try {
+            if (timedOut) {
+                log.error("[server] - async request timed out", failure);
+                if (!response.abandon()) {
+                    PPNIOResponse error = new PPNIOResponse(connection.newOutput(), null);
+                    error.getHead().setKeepAlive(false);
+                    error.send(InnerHTMLUtil.INTERNAL_ERROR_PAGE);
+                }
+            } else if (null == failure) {
+                response.finish();
+                reuse = response.getHead().isKeepAlive();
+            } else if (failure instanceof IOException) {
+                log.debug("[server] - write response error: {}", failure.getMessage());
+            } else {
+                log.error("[server] - process client request error", failure);
+                if (!response.isCommitted()) {
+                    response.reset();
+                    response.setStatus(500);
+                    response.getHead().setKeepAlive(false);
+                    response.finish();
+                }
+            }
         } catch (IOException e) {
-            log.error("[server] - handle READ event error", e);
+            log.debug("[server] - write response error: {}", e.getMessage());
+            reuse = false;
+        } finally {
+            inFlightLimiter.release();
+        }
+        connection.complete(reuse);
+        if (timedOut) {
+            async.whenReleased(connection::closeCompressor);
+        } else if (connection.isClosed()) {
+            connection.closeCompressor();
         }
     }
 
     public static void main(String[] args) {
         log.info("[main] ready to start server");
-        new PPNIOServer("localhost", 5555).startSync();
+        PPNIOServer server = new PPNIOServer("localhost", 5555);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(30_000)));
+        server.startSync();
     }
 }
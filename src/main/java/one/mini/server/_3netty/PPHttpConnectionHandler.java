@@ -0,0 +1,358 @@
+package one.mini.server._3netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import lombok.extern.slf4j.Slf4j;
+import one.mini.domain.PPAsyncContext;
+import one.mini.domain.netty.PPNettyRequest;
+import one.mini.domain.netty.PPNettyResponse;
+import one.mini.http.PPCompressedCache;
+import one.mini.http.PPHttpContentEncoding;
+import one.mini.http.PPInFlightLimiter;
+import one.mini.servlet.PPAsyncServlet;
+import one.mini.utils.InnerHTMLUtil;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 一个连接上的请求调度：支持 keep-alive 和 pipelining。
+ * <p>
+ * 同一个连接上的请求严格按顺序一个一个处理，前一个请求的响应写出之后才开始处理下一个，
+ * 所以 pipeline 过来的请求一定按顺序得到响应。空闲超时由 pipeline 中的 IdleStateHandler 触发。
+ * <p>
+ * servlet 在哪里执行由 {@link one.mini.anno.ServletExecution} 决定：INLINE 直接在 event loop 上执行，
+ * 其他的交给对应的 Executor，servlet 的写操作由 Netty 转到 channel 的 event loop 上执行，处理完之后回到 event loop 处理下一个请求。
+ * <p>
+ * servlet 可以通过 startAsync 或者 {@link PPAsyncServlet} 异步处理，这时 service 返回后连接上的请求保持 in flight，
+ * 不占用线程，异步完成后再在 event loop 上提交响应。超时后 servlet 手里的响应被放弃，500 另外发送，连接关闭。
+ * <p>
+ * 准入控制：server 和 web app 各有一个同时处理请求数的上限，超过时立即返回预先编码的 503（带 Retry-After），
+ * 不进入任何队列。对端不读取响应、channel 变得不可写时暂停读取，不再接收新的请求。
+ * <p>
+ * 停机时收到 {@link PPNettyConnections#DRAIN}：空闲的连接立即关闭，正在处理的请求完成后关闭，之后的响应都带 Connection: close。
+ */
+@Slf4j
+public abstract class PPHttpConnectionHandler extends SimpleChannelInboundHandler<PPNettyRequest> {
+
+    /**
+     * 一个连接上最多排队的 pipeline 请求数，超过认为是恶意客户端，直接断开
+     */
+    private static final int MAX_PIPELINED_REQUESTS = 64;
+
+    private final int maxKeepAliveRequests;
+    private final PPInFlightLimiter serverLimiter;
+    private final ArrayDeque<PPNettyRequest> pipelined = new ArrayDeque<>();
+    private boolean inFlight;
+    private boolean closing;
+    private boolean draining;
+    private int served;
+    /**
+     * 正在处理的请求和响应，以及它占用的 web app 名额（server 的名额由 admitted 表示）。
+     * 请求完成后两个对象在 event loop 上放回对象池，异步请求要等 servlet complete 或 fail 之后
+     */
+    private PPNettyRequest current;
+    private PPNettyResponse currentResponse;
+    private PPInFlightLimiter contextLimiter;
+    private boolean admitted;
+
+    protected PPHttpConnectionHandler(int maxKeepAliveRequests, PPInFlightLimiter serverLimiter) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        this.serverLimiter = serverLimiter;
+    }
+
+    /**
+     * 请求所属的 web app 的并发上限，没有时返回 null
+     */
+    protected PPInFlightLimiter limiter(PPNettyRequest request) {
+        return null;
+    }
+
+    /**
+     * 找到处理请求的 servlet，没有时返回 null。在 event loop 上调用，结果决定 dispatch 在哪里执行
+     */
+    protected abstract HttpServlet route(PPNettyRequest request);
+
+    /**
+     * 用 route 找到的 servlet 处理请求，响应通过 response 写出；servlet 为 null 时返回欢迎页、静态文件或者 404
+     */
+    protected abstract void dispatch(ChannelHandlerContext ctx, PPNettyRequest request, HttpServlet servlet, PPNettyResponse response) throws Exception;
+
+    /**
+     * 调用 servlet；标记了 CacheableResponse 的 servlet 同时带上压缩缓存的 key
+     */
+    protected static void service(HttpServlet servlet, PPNettyRequest request, PPNettyResponse response) throws ServletException, IOException {
+        response.getHead().setCacheKey(PPCompressedCache.keyFor(servlet, request.getHead()));
+        PPAsyncServlet.service(servlet, request, response);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, PPNettyRequest request) {
+        log.debug("[server] - received from client: {} {}", request.getMethod(), request.getUrl());
+        if (closing) {
+            discard(request);
+            return;
+        }
+        if (inFlight) {
+            if (pipelined.size() >= MAX_PIPELINED_REQUESTS) {
+                log.info("[server] - too many pipelined requests, close channel: {}", ctx.channel());
+                discard(request);
+                close(ctx);
+                return;
+            }
+            pipelined.add(request);
+            return;
+        }
+        process(ctx, request);
+    }
+
+    private void process(ChannelHandlerContext ctx, PPNettyRequest request) {
+        inFlight = true;
+        served++;
+        PPNettyResponse response = PPNettyResponse.newInstance(ctx);
+        response.getHead().setKeepAlive(request.getHead().isKeepAlive() && served < maxKeepAliveRequests && !draining);
+        response.getHead().setHttp10(!request.getHead().isHttp11());
+        response.getHead().setAcceptEncoding(PPHttpContentEncoding.negotiate(request.getHead()));
+        current = request;
+        currentResponse = response;
+        PPInFlightLimiter limiter = limiter(request);
+        if (!PPInFlightLimiter.tryAcquire(serverLimiter, limiter)) {
+            log.debug("[server] - too many requests in flight, reject request: {} {}", request.getMethod(), request.getUrl());
+            reject(ctx, request, response);
+            return;
+        }
+        admitted = true;
+        contextLimiter = limiter;
+        HttpServlet servlet = route(request);
+        Executor executor = PPServletExecutors.of(servlet);
+        if (null == executor && request.hasBody()) {
+            // servlet 读取 body 时会阻塞等待数据到达，而数据要由这个 event loop 读进来，不能在 event loop 上执行
+            executor = PPServletExecutors.VIRTUAL;
+        }
+        if (null == executor) {
+            Boolean keepAlive = service(ctx, request, servlet, response);
+            if (null != keepAlive) {
+                complete(ctx, keepAlive);
+            }
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                Boolean keepAlive = service(ctx, request, servlet, response);
+                if (null != keepAlive) {
+                    ctx.executor().execute(() -> complete(ctx, keepAlive));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.info("[server] - servlet executor busy, reject request: {} {}", request.getMethod(), request.getUrl());
+            reject(ctx, request, response);
+        }
+    }
+
+    /**
+     * 在 event loop 上直接返回 503，没读的 body 丢弃，连接继续复用
+     */
+    private void reject(ChannelHandlerContext ctx, PPNettyRequest request, PPNettyResponse response) {
+        request.discardBody();
+        response.send(InnerHTMLUtil.SERVICE_UNAVAILABLE_PAGE);
+        complete(ctx, response.getHead().isKeepAlive());
+    }
+
+    /**
+     * 执行 servlet 并提交响应，返回连接是否还能复用。
+     * servlet 开始了异步处理时返回 null，连接保持打开，异步完成后在 event loop 上提交响应，再处理下一个请求
+     */
+    private Boolean service(ChannelHandlerContext ctx, PPNettyRequest request, HttpServlet servlet, PPNettyResponse response) {
+        Exception failure = null;
+        try {
+            dispatch(ctx, request, servlet, response);
+        } catch (Exception e) {
+            failure = e;
+        }
+        if (null == failure && request.isAsyncStarted()) {
+            PPAsyncContext async = request.getAsyncContext();
+            async.dispatched(cause -> ctx.executor().execute(() -> complete(ctx, async.isTimedOut()
+                    ? abandon(ctx, request, response, cause)
+                    : finish(ctx, request, response, cause))));
+            return null;
+        }
+        return finish(ctx, request, response, failure);
+    }
+
+    /**
+     * 提交响应并丢弃没读完的 body；失败时响应还没提交就返回 500，连接都不再复用
+     */
+    private boolean finish(ChannelHandlerContext ctx, PPNettyRequest request, PPNettyResponse response, Throwable failure) {
+        try {
+            if (null == failure) {
+                try {
+                    response.finish();
+                    return response.getHead().isKeepAlive();
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+            log.error("[server] - process request error, channel: {}", ctx.channel(), failure);
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(500);
+                response.getHead().setKeepAlive(false);
+                try {
+                    response.finish();
+                } catch (Exception ignored) {
+                    // 连接马上会被关闭
+                }
+            }
+            return false;
+        } finally {
+            response.release();
+            request.discardBody();
+        }
+    }
+
+    /**
+     * 异步请求超时：servlet 可能还在别的线程上写这个响应，不再碰它的缓冲区，
+     * 没有提交时用一个新的响应对象发送 500，连接不再复用
+     */
+    private boolean abandon(ChannelHandlerContext ctx, PPNettyRequest request, PPNettyResponse response, Throwable cause) {
+        log.error("[server] - async request timed out, channel: {}", ctx.channel(), cause);
+        if (!response.abandon()) {
+            PPNettyResponse error = PPNettyResponse.newInstance(ctx);
+            error.getHead().setKeepAlive(false);
+            error.send(InnerHTMLUtil.INTERNAL_ERROR_PAGE);
+            error.recycle();
+        }
+        request.discardBody();
+        return false;
+    }
+
+    private void complete(ChannelHandlerContext ctx, boolean keepAlive) {
+        if (admitted) {
+            admitted = false;
+            PPInFlightLimiter.release(serverLimiter, contextLimiter);
+            contextLimiter = null;
+        }
+        PPNettyRequest request = current;
+        PPNettyResponse response = currentResponse;
+        current = null;
+        currentResponse = null;
+        if (request.isAsyncStarted()) {
+            // 超时的异步请求这时 servlet 可能还拿着请求和响应，等它 complete 或 fail 之后再回收
+            request.getAsyncContext().whenReleased(() -> recycle(ctx, request, response));
+        } else {
+            recycle(ctx, request, response);
+        }
+        if (!keepAlive || draining) {
+            close(ctx);
+            return;
+        }
+        inFlight = false;
+        // 前面的响应还积压在出站缓冲里，等 channel 重新可写再处理 pipeline 里的下一个请求
+        if (ctx.channel().isWritable()) {
+            processNext(ctx);
+        }
+    }
+
+    /**
+     * 在 event loop 上放回对象池；event loop 已经停止时交给 GC
+     */
+    private static void recycle(ChannelHandlerContext ctx, PPNettyRequest request, PPNettyResponse response) {
+        if (ctx.executor().inEventLoop()) {
+            request.recycle();
+            response.recycle();
+            return;
+        }
+        try {
+            ctx.executor().execute(() -> recycle(ctx, request, response));
+        } catch (RejectedExecutionException e) {
+            // 不放回对象池，但要释放请求占用的 web app 引用
+            request.getRouteMatch().clear();
+            log.debug("[server] - event loop stopped, drop request objects: {}", ctx.channel());
+        }
+    }
+
+    private void processNext(ChannelHandlerContext ctx) {
+        PPNettyRequest next = pipelined.poll();
+        if (null != next) {
+            process(ctx, next);
+        }
+    }
+
+    private void close(ChannelHandlerContext ctx) {
+        closing = true;
+        discardPipelined();
+        // 等响应写完再关闭连接
+        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void discardPipelined() {
+        PPNettyRequest request;
+        while (null != (request = pipelined.poll())) {
+            discard(request);
+        }
+    }
+
+    private static void discard(PPNettyRequest request) {
+        request.discardBody();
+        request.recycle();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            if (!inFlight) {
+                log.info("[server] - keep-alive connection idle, close channel: {}", ctx.channel());
+                ctx.close();
+            }
+            return;
+        }
+        if (evt == PPNettyConnections.DRAIN) {
+            draining = true;
+            if (!inFlight && !closing) {
+                log.debug("[server] - server stopping, close idle channel: {}", ctx.channel());
+                close(ctx);
+            }
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    /**
+     * 对端读得慢，出站缓冲超过高水位后暂停读取和 pipeline 请求的处理；低于低水位后恢复，但 body 积压造成的暂停由输入流自己恢复
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable = ctx.channel().isWritable();
+        if (!writable) {
+            log.debug("[server] - channel not writable, pause reading: {}", ctx.channel());
+            ctx.channel().config().setAutoRead(false);
+        } else {
+            if (null == current || !current.isBodyPaused()) {
+                ctx.channel().config().setAutoRead(true);
+            }
+            if (!inFlight && !closing) {
+                processNext(ctx);
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discardPipelined();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        log.error("[server] - read from http request error, channel: {}", ctx.channel(), cause);
+        ctx.close();
+    }
+}
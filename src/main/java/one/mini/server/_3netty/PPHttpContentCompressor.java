@@ -0,0 +1,47 @@
+package one.mini.server._3netty;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import one.mini.domain.netty.PPNettyResponsePart;
+import one.mini.http.PPCompressedCache;
+import one.mini.http.PPHttpCompressor;
+
+/**
+ * 压缩阶段，放在 {@link PPHttpResponseEncoder} 之后（出站方向在它之前），在响应头编码之前决定是否压缩。
+ * 在 event loop 上运行，压缩结果写进 channel 分配器分配的池化 buffer。
+ */
+public class PPHttpContentCompressor extends ChannelDuplexHandler {
+
+    private final PPHttpCompressor compressor;
+
+    public PPHttpContentCompressor() {
+        this(PPCompressedCache.SHARED);
+    }
+
+    public PPHttpContentCompressor(PPCompressedCache cache) {
+        this.compressor = new PPHttpCompressor(cache);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof PPNettyResponsePart part)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (null != part.head() && !compressor.begin(part.head(), part.content(), part.last())) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (!compressor.isActive()) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ctx.write(part.replace(compressor.encode(part.head(), part.content(), part.last(), ctx.alloc())), promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        compressor.close();
+    }
+}
@@ -0,0 +1,136 @@
+package one.mini.server._3netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import lombok.extern.slf4j.Slf4j;
+import one.mini.domain.netty.PPNettyInputStream;
+import one.mini.domain.netty.PPNettyRequest;
+import one.mini.http.PPHttpBodyDecoder;
+import one.mini.http.PPHttpParseException;
+import one.mini.http.PPHttpRequestHead;
+import one.mini.http.PPHttpRequestParser;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 直接在 ByteBuf 上解析请求，替代 StringDecoder。
+ * 每个 channel 一个实例，请求头跨多次 read 到达时会接着上次的位置继续解析。
+ * <p>
+ * 请求头解析完就把 {@link PPNettyRequest} 往后传，请求体随后以 retained slice 的形式逐段放进
+ * {@link PPNettyInputStream}，不做任何拷贝。
+ * <p>
+ * 请求对象从 event loop 的对象池里取，请求头直接解析进它的 head；往后传之后由 handler 负责 recycle。
+ */
+@Slf4j
+public class PPHttpRequestDecoder extends ByteToMessageDecoder {
+
+    private static final byte[] BAD_REQUEST = "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final PPHttpRequestParser parser = new PPHttpRequestParser();
+    /**
+     * 正在解析请求头的请求，收到下一个请求的第一个字节时才从对象池取
+     */
+    private PPNettyRequest request;
+    private int localPort = -1;
+    private boolean failed;
+
+    /**
+     * 当前正在接收的请求体，没有时为 null
+     */
+    private PPHttpBodyDecoder body;
+    private PPNettyInputStream bodyStream;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (failed) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        try {
+            if (null != body) {
+                decodeBody(in);
+                return;
+            }
+            if (null == request) {
+                if (localPort < 0) {
+                    localPort = ((InetSocketAddress) ctx.channel().localAddress()).getPort();
+                }
+                request = PPNettyRequest.newInstance(localPort);
+                parser.reset(request.getHead());
+            }
+            if (!parser.parse(in)) {
+                return;
+            }
+            PPNettyRequest request = this.request;
+            this.request = null;
+            PPHttpRequestHead head = request.getHead();
+            body = PPHttpBodyDecoder.of(head);
+            if (null != body) {
+                bodyStream = new PPNettyInputStream(ctx.channel());
+                request.setBody(bodyStream);
+                if (head.headers().containsToken("Expect", "100-continue")) {
+                    ctx.writeAndFlush(Unpooled.wrappedBuffer(CONTINUE));
+                }
+            }
+            out.add(request);
+        } catch (PPHttpParseException e) {
+            log.info("[server] - bad request from {}: {}", ctx.channel().remoteAddress(), e.getMessage());
+            failed = true;
+            in.skipBytes(in.readableBytes());
+            recycleRequest();
+            abortBody(e);
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(BAD_REQUEST)).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private void decodeBody(ByteBuf in) throws PPHttpParseException {
+        while (in.isReadable() && !body.isDone()) {
+            long available = body.available();
+            if (available > 0) {
+                int n = (int) Math.min(available, in.readableBytes());
+                bodyStream.offer(in.readRetainedSlice(n));
+                body.consumed(n);
+            } else {
+                body.feed(in.readByte());
+            }
+        }
+        if (body.isDone()) {
+            bodyStream.finish();
+            body = null;
+            bodyStream = null;
+        }
+    }
+
+    private void abortBody(IOException cause) {
+        if (null != bodyStream) {
+            bodyStream.abort(cause);
+            body = null;
+            bodyStream = null;
+        }
+    }
+
+    /**
+     * 请求头只解析了一部分的请求直接放回对象池
+     */
+    private void recycleRequest() {
+        if (null != request) {
+            request.recycle();
+            request = null;
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        abortBody(new IOException("connection closed before request body completed"));
+        recycleRequest();
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,66 @@
+package one.mini.server._3netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import one.mini.domain.netty.PPNettyResponsePart;
+import one.mini.http.PPHttpCommonHeaders;
+import one.mini.http.PPHttpResponseHead;
+
+/**
+ * 把 {@link PPNettyResponsePart} 编码成字节，替代 StringEncoder：
+ * 响应头直接编码进池化的 ByteBuf，chunked 时加上 chunk 长度行和结束块，和 body 拼成一个 CompositeByteBuf 写出。
+ * 其他消息（已经编码好的 ByteBuf）原样往下传。
+ * <p>
+ * 同一个 channel 上的响应是一个接一个写的，所以 chunked 的状态可以放在 handler 里。
+ */
+public class PPHttpResponseEncoder extends ChannelOutboundHandlerAdapter {
+
+    /**
+     * 状态行加上常见的几个响应头一般不超过 256 字节
+     */
+    private static final int HEAD_SIZE_HINT = 256;
+
+    private boolean chunked;
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof PPNettyResponsePart part)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        CompositeByteBuf out = ctx.alloc().compositeBuffer();
+        try {
+            PPHttpResponseHead head = part.head();
+            if (null != head) {
+                chunked = head.isChunked();
+                ByteBuf headBuf = ctx.alloc().buffer(HEAD_SIZE_HINT);
+                head.encode(headBuf);
+                out.addComponent(true, headBuf);
+            }
+            ByteBuf content = part.content();
+            if (content.isReadable()) {
+                if (chunked) {
+                    ByteBuf size = ctx.alloc().buffer(16);
+                    PPHttpResponseHead.writeChunkSize(size, content.readableBytes());
+                    out.addComponent(true, size);
+                    out.addComponent(true, content);
+                    out.addComponent(true, PPHttpCommonHeaders.CRLF_BUFFER.duplicate());
+                } else {
+                    out.addComponent(true, content);
+                }
+            } else {
+                content.release();
+            }
+            if (part.last() && chunked) {
+                out.addComponent(true, PPHttpCommonHeaders.LAST_CHUNK_BUFFER.duplicate());
+            }
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+        ctx.write(out, promise);
+    }
+}
@@ -0,0 +1,123 @@
+package one.mini.server._3netty;
+
+import lombok.extern.slf4j.Slf4j;
+import one.mini.servlet.ServletRegistry;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Netty 引擎热路径上每个请求的分配量：一个 keep-alive 连接 pipeline 发送请求给一个 INLINE servlet，
+ * 用 ThreadMXBean 读 event loop 线程分配的字节数，除以请求数。
+ * <p>
+ * 用法：java -cp ... one.mini.server._3netty.PPNettyAllocationBenchmark [requests] [port]。
+ * 加上 -Dio.netty.recycler.maxCapacityPerThread=0 关闭对象池，可以对比不复用请求和响应对象时的分配量
+ */
+@Slf4j
+public class PPNettyAllocationBenchmark {
+
+    private static final String PATH = "/alloc-bench";
+    private static final byte[] BODY = "hello".getBytes(StandardCharsets.US_ASCII);
+    private static final int BATCH = 100;
+
+    private static volatile Thread eventLoop;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5599;
+        // 每个请求的 debug 日志本身的分配比请求还多，测量时关掉
+        LogManager.getRootLogger().setLevel(Level.INFO);
+        ServletRegistry.registerServlet(PATH, new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                // INLINE servlet 在 event loop 上执行，记下要统计的线程
+                eventLoop = Thread.currentThread();
+                resp.setContentType("text/plain");
+                resp.getOutputStream().write(BODY);
+            }
+        });
+        PPNettyServer server = new PPNettyServer("localhost", port);
+        server.setMaxKeepAliveRequests(Integer.MAX_VALUE);
+        server.startSync();
+        try (Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] request = ("GET " + PATH + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            // 响应的长度固定（Date 是定长的），先发一个请求得到长度，之后按长度读
+            out.write(request);
+            int responseLength = firstResponseLength(in);
+            run(out, in, request, responseLength, Math.max(requests / 2, BATCH));
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long before = threads.getThreadAllocatedBytes(eventLoop.threadId());
+            long start = System.nanoTime();
+            int sent = run(out, in, request, responseLength, requests);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(eventLoop.threadId()) - before;
+            log.info("[bench] - requests: {}, allocated on event loop: {} bytes/request, throughput: {} requests/s",
+                    sent, allocated / sent, sent * 1_000_000_000L / elapsed);
+        } finally {
+            server.stop(1_000);
+        }
+        System.exit(0);
+    }
+
+    private static Socket connect(int port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException e) {
+                if (i >= 100) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * 每次 pipeline 发送 BATCH 个请求，读完这一批的响应再发下一批，返回发送的请求数
+     */
+    private static int run(OutputStream out, InputStream in, byte[] request, int responseLength, int requests) throws IOException {
+        byte[] batch = new byte[request.length * BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            System.arraycopy(request, 0, batch, i * request.length, request.length);
+        }
+        byte[] responses = new byte[responseLength * BATCH];
+        int sent = 0;
+        while (sent < requests) {
+            out.write(batch);
+            in.readNBytes(responses, 0, responses.length);
+            sent += BATCH;
+        }
+        return sent;
+    }
+
+    private static int firstResponseLength(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.indexOf("\r\n\r\n") < 0) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection closed before response head");
+            }
+            head.append((char) b);
+        }
+        int contentLength = 0;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        in.readNBytes(contentLength);
+        return head.length() + contentLength;
+    }
+}
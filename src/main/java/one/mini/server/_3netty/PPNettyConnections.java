@@ -0,0 +1,72 @@
+package one.mini.server._3netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个 server 上所有打开的连接，用于优雅停机。
+ * <p>
+ * 停机时给每个连接发送 {@link #DRAIN} 事件：空闲的 keep-alive 连接立即关闭，正在处理请求的连接等响应写完后关闭，
+ * 不再处理后面的请求。停机开始后才初始化的连接在加入时同样收到 DRAIN。
+ */
+@Slf4j
+public class PPNettyConnections {
+
+    /**
+     * 通过 pipeline 的 userEventTriggered 发给连接的排空事件
+     */
+    public static final Object DRAIN = new Object() {
+        @Override
+        public String toString() {
+            return "DRAIN";
+        }
+    };
+
+    private final ChannelGroup channels = new DefaultChannelGroup("pp-connections", GlobalEventExecutor.INSTANCE);
+    private volatile boolean draining;
+
+    /**
+     * 在 ChannelInitializer 中调用，连接关闭后自动从 group 中移除
+     */
+    public void add(Channel channel) {
+        channels.add(channel);
+        if (draining) {
+            channel.pipeline().fireUserEventTriggered(DRAIN);
+        }
+    }
+
+    public int size() {
+        return channels.size();
+    }
+
+    /**
+     * 通知所有连接排空，等它们全部关闭；超时后强制关闭剩下的连接，返回 false
+     */
+    public boolean drain(long timeoutMillis) {
+        draining = true;
+        for (Channel channel : channels) {
+            channel.pipeline().fireUserEventTriggered(DRAIN);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        // 等待期间可能还有刚初始化的连接加入，循环到 group 为空
+        while (!channels.isEmpty()) {
+            ChannelGroupFuture closed = channels.newCloseFuture();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !closed.awaitUninterruptibly(remaining, TimeUnit.NANOSECONDS)) {
+                break;
+            }
+        }
+        if (channels.isEmpty()) {
+            return true;
+        }
+        log.info("[server] - {} connections not drained in {} ms, force close", channels.size(), timeoutMillis);
+        channels.close().awaitUninterruptibly();
+        return false;
+    }
+}
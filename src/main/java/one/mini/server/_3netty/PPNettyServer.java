@@ -1,37 +1,41 @@
 package one.mini.server._3netty;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.MultiThreadIoEventLoopGroup;
-import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioIoHandler;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.internal.StringUtil;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import one.mini.anno.ReqPath;
+import one.mini.anno.ReqPathIndex;
 import one.mini.domain.netty.PPNettyRequest;
 import one.mini.domain.netty.PPNettyResponse;
 import one.mini.classloader.ExternalWebClassLoader;
+import one.mini.http.PPInFlightLimiter;
+import one.mini.http.PPStaticFile;
+import one.mini.http.PPStaticFiles;
+import one.mini.servlet.PPRoute;
+import one.mini.servlet.PPWebServletContext;
 import one.mini.servlet.ServletRegistry;
 import one.mini.servlet.TestNettyServlet;
-import one.mini.utils.AnnotationUtils;
 import one.mini.utils.InnerHTMLUtil;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.ServerSocket;
 import java.net.URL;
 import java.nio.channels.Selector;
 import java.nio.file.Paths;
-import java.util.ServiceLoader;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Data
@@ -40,9 +44,36 @@ public class PPNettyServer {
     private ServerSocket ss;
     private String host;
     private int port;
+    /**
+     * keep-alive 连接空闲多久关闭，以及一个连接最多处理多少个请求
+     */
+    private int keepAliveTimeoutSeconds = 20;
+    private int maxKeepAliveRequests = 100;
+    /**
+     * 同时处理的请求数上限，超过时直接返回 503
+     */
+    private int maxInFlightRequests = PPInFlightLimiter.DEFAULT_MAX_IN_FLIGHT;
+    /**
+     * 没有 servlet 处理的请求到这里找静态文件，为 null 时不提供静态资源
+     */
+    private PPStaticFiles staticFiles = PPStaticFiles.classpath();
+
+    /**
+     * 启动时选择 transport（-Dpp.netty.transport=auto|epoll|io_uring|nio），以及 native transport 下
+     * 用 SO_REUSEPORT 绑定同一端口的 acceptor 数量，NIO 时只有一个
+     */
+    private PPNettyTransport transport = PPNettyTransport.select(System.getProperty("pp.netty.transport"));
+    private int acceptors = Runtime.getRuntime().availableProcessors();
 
     private Selector selector;
 
+    private volatile MultiThreadIoEventLoopGroup bossGroup;
+    private volatile MultiThreadIoEventLoopGroup workerGroup;
+    private volatile List<Channel> serverChannels = List.of();
+    private final PPNettyConnections connections = new PPNettyConnections();
+    private final List<PPWebServletContext> webContexts = new CopyOnWriteArrayList<>();
+    private volatile boolean stopping;
+
     public PPNettyServer(String host, int port) {
         this.host = host;
         this.port = port;
@@ -54,66 +85,111 @@ public class PPNettyServer {
     }
 
     public void start() {
-        try (
-                MultiThreadIoEventLoopGroup bossGroup = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
-                MultiThreadIoEventLoopGroup workerGroup = new MultiThreadIoEventLoopGroup(NioIoHandler.newFactory());
-        ) {
+        PPInFlightLimiter inFlightLimiter = new PPInFlightLimiter(maxInFlightRequests);
+        bossGroup = new MultiThreadIoEventLoopGroup(transport.acceptorThreads(acceptors), transport.ioHandlerFactory());
+        workerGroup = new MultiThreadIoEventLoopGroup(transport.ioHandlerFactory());
+        try {
             // base on netty
             ServerBootstrap serverBootstrap = new ServerBootstrap();
             serverBootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
                     .option(ChannelOption.SO_BACKLOG, 128)
                     .childOption(ChannelOption.SO_KEEPALIVE, true)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
                             ch.pipeline()
-                                    .addLast(new StringDecoder())
-                                    .addLast(new StringEncoder())
+                                    .addLast(new IdleStateHandler(0, 0, keepAliveTimeoutSeconds))
+                                    .addLast(new PPHttpRequestDecoder())
+                                    .addLast(new PPHttpResponseEncoder())
+                                    .addLast(new PPHttpContentCompressor())
                                     // .addLast(new LineBasedFrameDecoder(1024))
                                     // .addLast(new LineEncoder())
                                     // .addLast(new CorsHandler(CorsConfigBuilder.forAnyOrigin().build()))
-                                    .addLast(new PPChannelStringRequestHandler())
+                                    .addLast(new PPChannelStringRequestHandler(maxKeepAliveRequests, inFlightLimiter, staticFiles))
                             ;
+                            connections.add(ch);
                         }
                     });
             initServletMapping();
             String rootPath = getClass().getClassLoader().getResource("").getPath();
             String externalJarFilename = "mini-puppy-1.0-SNAPSHOT.jar";
             loadExternalJar(Paths.get(rootPath, externalJarFilename).toString());
-            ChannelFuture future = serverBootstrap.bind(port);
-            log.info("[server] - server started at port: {}", port);
-            future.channel().closeFuture().sync();
+            serverChannels = transport.bind(serverBootstrap, port, acceptors);
+            log.info("[server] - server started at port: {}, transport: {}, acceptors: {}", port, transport, serverChannels.size());
+            PPNettyTransport.awaitClose(serverChannels);
         } catch (InterruptedException e) {
             log.error("[server] - server error", e);
+        } finally {
+            // stop 关闭 acceptor 之后由 stop 负责排空连接和停止 event loop
+            if (!stopping) {
+                bossGroup.shutdownGracefully();
+                workerGroup.shutdownGracefully();
+            }
         }
     }
 
-    public static class PPChannelStringRequestHandler extends SimpleChannelInboundHandler<String> {
-        @Override
-        protected void channelRead0(ChannelHandlerContext ctx, String requestStr) throws Exception {
-            log.info("[server] - received from client: {}", requestStr);
-            PPNettyRequest request = new PPNettyRequest(requestStr);
-            if ("/".equals(request.getUrl())) {
-                ctx.writeAndFlush(InnerHTMLUtil.htmlResponse("<h1>Welcome - puppy-server base on netty-4.2-final</h1>"));
-                return;
-            }
-            if (null == ServletRegistry.getServlet(request.getUrl())) {
-                ctx.writeAndFlush(InnerHTMLUtil.htmlResponse("<h1>404 Not Found</h1>"));
-                return;
-            }
-            ServletRegistry.getServlet(request.getUrl()).service(request, new PPNettyResponse(ctx));
+    /**
+     * 优雅停机：关闭 acceptor 不再接受新连接，空闲的 keep-alive 连接立即关闭，
+     * 正在处理的请求最多等 timeoutMillis 完成，然后停止 event loop、destroy servlet 并关闭 web app 的 classloader。
+     * 返回所有连接是否在超时之前排空
+     */
+    public boolean stop(long timeoutMillis) {
+        stopping = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        log.info("[server] - server stopping, port: {}, connections: {}", port, connections.size());
+        for (Channel channel : serverChannels) {
+            channel.close().awaitUninterruptibly();
+        }
+        boolean drained = connections.drain(timeoutMillis);
+        if (null != bossGroup) {
+            long quietTimeout = Math.max(0, deadline - System.currentTimeMillis());
+            bossGroup.shutdownGracefully(0, quietTimeout, TimeUnit.MILLISECONDS).awaitUninterruptibly();
+            workerGroup.shutdownGracefully(0, quietTimeout, TimeUnit.MILLISECONDS).awaitUninterruptibly();
+        }
+        for (PPWebServletContext webContext : webContexts) {
+            ServletRegistry.unregisterRoutes(webContext.getRoutes().routes());
+            webContext.destroy();
+        }
+        webContexts.clear();
+        log.info("[server] - server stopped, port: {}, drained: {}", port, drained);
+        return drained;
+    }
+
+    public static class PPChannelStringRequestHandler extends PPHttpConnectionHandler {
+
+        private final PPStaticFiles staticFiles;
+
+        public PPChannelStringRequestHandler(int maxKeepAliveRequests, PPInFlightLimiter inFlightLimiter, PPStaticFiles staticFiles) {
+            super(maxKeepAliveRequests, inFlightLimiter);
+            this.staticFiles = staticFiles;
         }
 
         @Override
-        public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-            ctx.close();
+        protected HttpServlet route(PPNettyRequest request) {
+            return ServletRegistry.route(request);
         }
 
         @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-            log.error("[server] - read from http request error, channel: {}", ctx.channel(), cause);
-            ctx.close();
+        protected void dispatch(ChannelHandlerContext ctx, PPNettyRequest request, HttpServlet servlet, PPNettyResponse response) throws ServletException, IOException {
+            if ("/".equals(request.getUrl())) {
+                response.send(InnerHTMLUtil.WELCOME_PAGE);
+                return;
+            }
+            if (null == servlet && request.getRouteMatch().isMethodNotAllowed()) {
+                InnerHTMLUtil.methodNotAllowed(response, request.getRouteMatch().getAllow());
+                return;
+            }
+            if (null == servlet) {
+                PPStaticFile file = null == staticFiles ? null : staticFiles.lookup(request.getHead());
+                if (null != file) {
+                    response.sendFile(file);
+                } else {
+                    response.send(InnerHTMLUtil.NOT_FOUND_PAGE);
+                }
+                return;
+            }
+            service(servlet, request, response);
         }
     }
 
@@ -134,30 +210,43 @@ public class PPNettyServer {
         } catch (MalformedURLException e) {
             log.error("[server] - load external jar error, transform file to url error", e);
         }
-        registerServlets(ecl);
+        PPWebServletContext webCtx = new PPWebServletContext(ecl);
+        registerServlets(ecl, webCtx);
+        webContexts.add(webCtx);
     }
 
-    public void registerServlets(ClassLoader cl) {
-        /*
-         * 需要设置当前线程的 classloader 为我们自定义的 classloader，否则会报 java.lang.NoClassDefFoundError: javax/servlet/ServletException
-         */
-        Thread.currentThread().setContextClassLoader(cl);
-        ServiceLoader<HttpServlet> services = ServiceLoader.load(HttpServlet.class);
-        for (HttpServlet service : services) {
-            if (AnnotationUtils.isAnnotationPresent(service.getClass(), one.mini.anno.ReqPath.class)) {
-                ReqPath reqPath = AnnotationUtils.getAnnotation(service.getClass(), ReqPath.class);
-                for (String p : reqPath.path()) {
-                    ServletRegistry.registerServlet(p, service);
-                    log.info("[server] - registered path: {} servlet: {}", p, service.toString());
-                }
-            }
+    /**
+     * servlet 注册到全局的 ServletRegistry，同时记在 webCtx 里，停机时据此注销和 destroy。
+     * 读取 jar 里编译时生成的路由索引，创建并 init 所有 servlet 之后再注册；没有索引的 jar 不注册任何 servlet
+     */
+    public void registerServlets(ClassLoader cl, PPWebServletContext webCtx) {
+        List<PPRoute> routes;
+        try {
+            routes = webCtx.loadRouteIndex();
+        } catch (IOException e) {
+            log.error("[server] - read route index error", e);
+            return;
+        }
+        if (null == routes) {
+            log.warn("[server] - no route index {} in web app, no servlet registered", ReqPathIndex.LOCATION);
+            return;
+        }
+        webCtx.registerRoutes(routes);
+        try {
+            webCtx.warmUp();
+        } catch (IllegalStateException e) {
+            log.error("[server] - init servlet error, no servlet registered", e);
+            webCtx.destroy();
+            return;
         }
-        // 操作完成还原当前线程的 classloader
-        Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+        ServletRegistry.registerRoutes(routes);
+        routes.forEach(route -> log.info("[server] - registered path: {} method: {} servlet: {}", route.pattern(), route.method(), route.holder().className()));
     }
 
     public static void main(String[] args) {
         log.info("[main] ready to start server");
-        new PPNettyServer("localhost", 5555).startSync();
+        PPNettyServer server = new PPNettyServer("localhost", 5555);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(30_000)));
+        server.startSync();
     }
 }
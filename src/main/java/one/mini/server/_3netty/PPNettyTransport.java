@@ -0,0 +1,134 @@
+package one.mini.server._3netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.UnixChannelOption;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Netty 引擎使用的 transport：Linux 上优先用 native 的 epoll，明确指定时可以用 io_uring，都不可用时退回 JDK 的 NIO。
+ * <p>
+ * native transport 支持 SO_REUSEPORT，可以让多个 acceptor channel 绑定同一个端口，由内核把新连接分给它们，
+ * 不再由单个 acceptor 线程接受所有连接。
+ */
+@Slf4j
+public enum PPNettyTransport {
+
+    IO_URING,
+    EPOLL,
+    NIO;
+
+    /**
+     * 按名字选择（auto / epoll / io_uring / nio），指定的 transport 在当前系统上不可用时退回 auto 的结果
+     */
+    public static PPNettyTransport select(String name) {
+        if (null == name || "auto".equalsIgnoreCase(name)) {
+            return auto();
+        }
+        PPNettyTransport transport = valueOf(name.trim().toUpperCase(Locale.ROOT));
+        if (transport.isAvailable()) {
+            return transport;
+        }
+        PPNettyTransport fallback = auto();
+        log.info("[server] - transport {} not available: {}, fall back to {}", transport, transport.unavailabilityCause(), fallback);
+        return fallback;
+    }
+
+    /**
+     * epoll 可用就用 epoll，否则 NIO。io_uring 依赖较新的内核，只在明确指定时使用
+     */
+    public static PPNettyTransport auto() {
+        return EPOLL.isAvailable() ? EPOLL : NIO;
+    }
+
+    public boolean isAvailable() {
+        return switch (this) {
+            case IO_URING -> IoUring.isAvailable();
+            case EPOLL -> Epoll.isAvailable();
+            case NIO -> true;
+        };
+    }
+
+    private Throwable unavailabilityCause() {
+        return switch (this) {
+            case IO_URING -> IoUring.unavailabilityCause();
+            case EPOLL -> Epoll.unavailabilityCause();
+            case NIO -> null;
+        };
+    }
+
+    public IoHandlerFactory ioHandlerFactory() {
+        return switch (this) {
+            case IO_URING -> IoUringIoHandler.newFactory();
+            case EPOLL -> EpollIoHandler.newFactory();
+            case NIO -> NioIoHandler.newFactory();
+        };
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return switch (this) {
+            case IO_URING -> IoUringServerSocketChannel.class;
+            case EPOLL -> EpollServerSocketChannel.class;
+            case NIO -> NioServerSocketChannel.class;
+        };
+    }
+
+    public boolean supportsReusePort() {
+        return this != NIO;
+    }
+
+    /**
+     * 绑定端口并返回所有的 server channel。支持 SO_REUSEPORT 时绑定 acceptors 个 channel，
+     * 它们分别注册在 boss group 的不同 event loop 上，所以 boss group 的线程数应该等于 acceptors。
+     * 任何一个绑定失败时关闭已经绑定的 channel
+     */
+    public List<Channel> bind(ServerBootstrap bootstrap, int port, int acceptors) throws InterruptedException {
+        int count = acceptorThreads(acceptors);
+        if (count > 1) {
+            bootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+        }
+        List<Channel> channels = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                channels.add(bootstrap.bind(port).sync().channel());
+            }
+        } catch (Exception e) {
+            // sync 会直接抛出绑定失败的原因（例如 BindException）
+            for (Channel channel : channels) {
+                channel.close().awaitUninterruptibly();
+            }
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * boss group 的线程数：每个 acceptor channel 一个 event loop
+     */
+    public int acceptorThreads(int acceptors) {
+        return supportsReusePort() ? Math.max(1, acceptors) : 1;
+    }
+
+    /**
+     * 等待所有 acceptor channel 关闭
+     */
+    public static void awaitClose(List<Channel> channels) throws InterruptedException {
+        for (Channel channel : channels) {
+            channel.closeFuture().sync();
+        }
+    }
+}
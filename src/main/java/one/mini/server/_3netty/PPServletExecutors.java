@@ -0,0 +1,62 @@
+package one.mini.server._3netty;
+
+import lombok.extern.slf4j.Slf4j;
+import one.mini.anno.ServletExecution;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据 servlet 上的 {@link ServletExecution} 找到执行它的 Executor，结果按 servlet 的类缓存。
+ * <p>
+ * 返回 null 表示直接在 event loop 上执行。命名线程池第一次用到时创建，按名字共用。
+ */
+@Slf4j
+public class PPServletExecutors {
+
+    /**
+     * 虚拟线程：也用来执行带请求体的请求，servlet 读取 body 时会阻塞等待数据到达，不能占用 event loop
+     */
+    public static final ExecutorService VIRTUAL = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pp-servlet-", 0).factory());
+
+    private static final Map<String, ExecutorService> POOLS = new ConcurrentHashMap<>();
+
+    private static final ClassValue<Executor> EXECUTORS = new ClassValue<>() {
+        @Override
+        protected Executor computeValue(Class<?> type) {
+            ServletExecution execution = type.getAnnotation(ServletExecution.class);
+            if (null == execution) {
+                return null;
+            }
+            return switch (execution.value()) {
+                case INLINE -> null;
+                case VIRTUAL -> VIRTUAL;
+                case POOL -> POOLS.computeIfAbsent(execution.pool(), name -> newPool(name, execution.threads(), execution.queue()));
+            };
+        }
+    };
+
+    private PPServletExecutors() {
+    }
+
+    /**
+     * servlet 为 null（欢迎页、静态文件、404）时在 event loop 上执行
+     */
+    public static Executor of(Object servlet) {
+        return null == servlet ? null : EXECUTORS.get(servlet.getClass());
+    }
+
+    private static ExecutorService newPool(String name, int threads, int queue) {
+        log.info("[server] - create servlet pool: {}, threads: {}, queue: {}", name, threads, queue);
+        // 队列满时抛出 RejectedExecutionException，由调用方返回 503
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)),
+                Thread.ofPlatform().name("pp-" + name + "-", 0).daemon(true).factory());
+    }
+}
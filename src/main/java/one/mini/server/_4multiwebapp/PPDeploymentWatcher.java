@@ -0,0 +1,145 @@
+package one.mini.server._4multiwebapp;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 用 WatchService 监听热部署目录里的 jar。复制一个大 jar 会产生多个修改事件，
+ * 文件大小和修改时间在 quietMillis 内不再变化之后才热部署，避免加载写了一半的 jar
+ */
+@Slf4j
+public class PPDeploymentWatcher {
+
+    private final PPMultiWebAppNettyContainer container;
+    private final Path dir;
+    private long quietMillis = 500;
+
+    /**
+     * 等待稳定的 jar，只在 watcher 线程上访问
+     */
+    private final Map<Path, Pending> pending = new HashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    private record Pending(long since, long size, long modified) {
+    }
+
+    public PPDeploymentWatcher(PPMultiWebAppNettyContainer container, Path dir) {
+        this.container = container;
+        this.dir = dir.toAbsolutePath().normalize();
+    }
+
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+
+    public void start() throws IOException {
+        watchService = dir.getFileSystem().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        running = true;
+        thread = Thread.ofPlatform().name("pp-deploy-watcher").daemon().start(this::run);
+        log.info("[server] - watching deploy dir: {}", dir);
+    }
+
+    public void close() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("[server] - close deploy dir watcher error", e);
+        }
+        if (Thread.currentThread() != thread) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                WatchKey key = watchService.poll(Math.max(10, quietMillis / 2), TimeUnit.MILLISECONDS);
+                if (null != key) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // 事件丢失，目录里的 jar 全部重新检查
+                            rescan();
+                        } else if (event.context() instanceof Path name && name.toString().endsWith(".jar")) {
+                            touch(dir.resolve(name));
+                        }
+                    }
+                    key.reset();
+                }
+                applyStable();
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                log.error("[server] - deploy dir watcher error", e);
+            }
+        }
+        log.info("[server] - stopped watching deploy dir: {}", dir);
+    }
+
+    private void rescan() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".jar")).forEach(this::touch);
+        }
+    }
+
+    private void touch(Path jar) {
+        pending.put(jar, snapshot(jar, System.currentTimeMillis()));
+    }
+
+    /**
+     * 安静期过去并且文件没有再变化的 jar 交给容器：存在时热部署，不存在时停止
+     */
+    private void applyStable() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Pending> entry = iterator.next();
+            Pending last = entry.getValue();
+            if (now - last.since() < quietMillis) {
+                continue;
+            }
+            Pending current = snapshot(entry.getKey(), now);
+            if (current.size() != last.size() || current.modified() != last.modified()) {
+                entry.setValue(current);
+                continue;
+            }
+            iterator.remove();
+            if (current.size() >= 0) {
+                log.info("[server] - web app jar changed: {}", entry.getKey());
+                container.redeployJar(entry.getKey());
+            } else {
+                log.info("[server] - web app jar removed: {}", entry.getKey());
+                container.undeployJar(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 文件不存在时 size 为 -1
+     */
+    private static Pending snapshot(Path jar, long now) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+            return new Pending(now, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return new Pending(now, -1, -1);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package one.mini.server._4multiwebapp;
+
+import lombok.extern.slf4j.Slf4j;
+import one.mini.servlet.PPRoute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 热部署的 classloader 泄漏检查：部署一个 web app jar，请求它的每个 GET 路由，热部署一次，再请求一次，然后停止它，
+ * 断言 findClassLoaderLeaks 为空。没有泄漏时退出码为 0，部署失败、请求返回 5xx 或者有泄漏时为 1。
+ * <p>
+ * 用法：java -cp ... one.mini.server._4multiwebapp.PPHotRedeployLeakCheck [jar] [port]，jar 默认是 init 部署的示例 jar。
+ * classloader 是 parent-first 的，jar 里同时在容器 classpath 上的类由容器加载，要检查 web app 自己的类是否泄漏，
+ * 传入只在 jar 里有的 web app
+ */
+@Slf4j
+public class PPHotRedeployLeakCheck {
+
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0]
+                : Paths.get(PPHotRedeployLeakCheck.class.getClassLoader().getResource("").getPath(), "mini-puppy-1.0-SNAPSHOT.jar").toString();
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5577;
+        PPMultiWebAppNettyContainer container = new PPMultiWebAppNettyContainer("localhost", port);
+        container.setDrainTimeoutMillis(5_000);
+        PPWebAppSpec spec = new PPWebAppSpec(jar, port, "/leak-check");
+        boolean passed = false;
+        try {
+            passed = check(container, spec);
+        } finally {
+            container.stop(1_000);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(PPMultiWebAppNettyContainer container, PPWebAppSpec spec) throws Exception {
+        PPWebAppDeployment deployed = container.deployAll(List.of(spec)).get(0);
+        if (!deployed.isSuccess()) {
+            log.error("[check] - deploy failed: {}", spec, deployed.getFailure());
+            return false;
+        }
+        if (!requestAll(spec, deployed)) {
+            return false;
+        }
+        PPWebAppDeployment redeployed = container.redeploy(spec);
+        if (!redeployed.isSuccess()) {
+            log.error("[check] - redeploy failed: {}", spec, redeployed.getFailure());
+            return false;
+        }
+        if (!requestAll(spec, redeployed)) {
+            return false;
+        }
+        container.undeploy(spec);
+        List<String> leaks = container.findClassLoaderLeaks(container.getLeakCheckTimeoutMillis());
+        if (!leaks.isEmpty()) {
+            log.error("[check] - classloaders not collected after redeploy and undeploy: {}", leaks);
+            return false;
+        }
+        log.info("[check] - no classloader leaks after redeploy and undeploy: {}", spec);
+        return true;
+    }
+
+    /**
+     * 请求 web app 的每个不带参数的 GET 路由，让它的 servlet 实际处理过请求；有 5xx 时返回 false
+     */
+    private static boolean requestAll(PPWebAppSpec spec, PPWebAppDeployment deployment) throws IOException {
+        int requested = 0;
+        for (PPRoute route : deployment.getContext().getRoutes().routes()) {
+            String pattern = route.pattern();
+            if ((null != route.method() && !"GET".equals(route.method())) || pattern.contains("*") || pattern.contains("{")) {
+                continue;
+            }
+            int status = get(spec.port(), spec.contextPath() + pattern);
+            if (status >= 500) {
+                log.error("[check] - GET {}{} returned {}", spec.contextPath(), pattern, status);
+                return false;
+            }
+            requested++;
+        }
+        log.info("[check] - requested {} routes of {}", requested, spec);
+        return true;
+    }
+
+    private static int get(int port, String path) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String response = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+            // HTTP/1.1 200 OK
+            if (!response.startsWith("HTTP/1.")) {
+                throw new IOException("no response for " + path);
+            }
+            return Integer.parseInt(response.substring(9, 12));
+        }
+    }
+}
@@ -1,39 +1,62 @@
 package one.mini.server._4multiwebapp;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.MultiThreadIoEventLoopGroup;
-import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioIoHandler;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
-import io.netty.util.internal.StringUtil;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.Future;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import one.mini.anno.ReqPath;
+import one.mini.anno.ReqPathIndex;
 import one.mini.classloader.ExternalWebClassLoader;
+import one.mini.classloader.PPClassLoaderLeakDetector;
 import one.mini.domain.netty.PPNettyRequest;
 import one.mini.domain.netty.PPNettyResponse;
+import one.mini.http.PPHttpCommonHeaders;
+import one.mini.http.PPInFlightLimiter;
+import one.mini.server._3netty.PPHttpConnectionHandler;
+import one.mini.server._3netty.PPHttpContentCompressor;
+import one.mini.server._3netty.PPHttpRequestDecoder;
+import one.mini.server._3netty.PPHttpResponseEncoder;
+import one.mini.server._3netty.PPNettyConnections;
+import one.mini.server._3netty.PPNettyTransport;
+import one.mini.servlet.PPRoute;
+import one.mini.servlet.PPRouteMatch;
+import one.mini.servlet.PPVirtualHosts;
 import one.mini.servlet.PPWebServletContext;
 import one.mini.servlet.ServletRegistry;
-import one.mini.utils.AnnotationUtils;
 import one.mini.utils.InnerHTMLUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.ServerSocket;
 import java.net.URL;
 import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ServiceLoader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 @Slf4j
 @Data
@@ -42,9 +65,74 @@ public class PPMultiWebAppNettyContainer {
     private ServerSocket ss;
     private String host;
     private int defaultPort = 8080;
+    /**
+     * keep-alive 连接空闲多久关闭，以及一个连接最多处理多少个请求
+     */
+    private int keepAliveTimeoutSeconds = 20;
+    private int maxKeepAliveRequests = 100;
+    /**
+     * 同时处理的请求数上限，超过时直接返回 503
+     */
+    private int maxInFlightRequests = PPInFlightLimiter.DEFAULT_MAX_IN_FLIGHT;
+
+    /**
+     * 启动时选择 transport（-Dpp.netty.transport=auto|epoll|io_uring|nio），以及 native transport 下
+     * 用 SO_REUSEPORT 绑定同一端口的 acceptor 数量，NIO 时只有一个
+     */
+    private PPNettyTransport transport = PPNettyTransport.select(System.getProperty("pp.netty.transport"));
+    private int acceptors = Runtime.getRuntime().availableProcessors();
 
     private Selector selector;
 
+    private MultiThreadIoEventLoopGroup bossGroup;
+    private MultiThreadIoEventLoopGroup workerGroup;
+    private ServerBootstrap bootstrap;
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+    private final PPNettyConnections connections = new PPNettyConnections();
+    /**
+     * 已经加载的 web app 和它们绑定的端口，停机时 destroy；已经绑定的端口不重复绑定
+     */
+    private final List<PPVirtualHosts.Binding> webContexts = new CopyOnWriteArrayList<>();
+    private final Set<Integer> boundPorts = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopping;
+
+    /**
+     * init 时部署的 web app，为空时部署示例 jar；deployThreads 是同时部署的 web app 数量上限
+     */
+    private List<PPWebAppSpec> webApps = List.of();
+    private int deployThreads = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+    /**
+     * 每个 web app 最近一次部署（包括失败的热部署）的结果和各阶段耗时，只保留最新的一次，反复热部署时不会增长
+     */
+    private final Map<PPWebAppSpec, PPWebAppDeployment> deployments = new ConcurrentHashMap<>();
+    /**
+     * 当前生效的部署，热部署时按 spec 找到要替换的旧版本
+     */
+    private final Map<PPWebAppSpec, PPWebAppDeployment> active = new ConcurrentHashMap<>();
+
+    /**
+     * 热部署目录，设置后 init 部署目录里的 jar 并监听变化：&lt;name&gt;.jar 部署在 defaultPort 的 /&lt;name&gt;，ROOT.jar 部署在根路径。
+     * 热部署时 jar 先复制到 workDir 再加载，覆盖目录里的 jar 不会影响正在运行的旧版本
+     */
+    private String deployDir;
+    private Path workDir;
+    /**
+     * 替换之后等待旧 context 上正在处理的请求完成的最长时间，以及检查旧 classloader 是否被回收的等待时间
+     */
+    private long drainTimeoutMillis = 30_000;
+    private long leakCheckTimeoutMillis = 5_000;
+    private final PPClassLoaderLeakDetector leakDetector = new PPClassLoaderLeakDetector();
+    private final ReentrantLock redeployLock = new ReentrantLock();
+    private final AtomicLong snapshots = new AtomicLong();
+    private Path createdWorkDir;
+    private PPDeploymentWatcher watcher;
+
+    static {
+        // 容器自己的后台线程（Date 头的定时器）在部署 web app 之前启动。如果第一次由 servlet 的调用触发，新线程的
+        // inheritedAccessControlContext 会引用调用栈上 web app 的 ProtectionDomain，热部署之后旧的 classloader 无法回收
+        PPHttpCommonHeaders.dateLine();
+    }
+
     public PPMultiWebAppNettyContainer(String host, int defaultPort) {
         this.host = host;
         this.defaultPort = defaultPort;
@@ -56,127 +144,514 @@ public class PPMultiWebAppNettyContainer {
     }
 
     public void init() {
-        String rootPath = getClass().getClassLoader().getResource("").getPath();
-        String externalJarFilename = "mini-puppy-1.0-SNAPSHOT.jar";
-        String externalJarFilename2 = "mini-puppy-1.0-SNAPSHOT.jar";
-        int port1 = 5555; // 假设从 externalJar1 配置文件中解析出 port=5555
-        int port2 = 5566; // 假设从 externalJar2 配置文件中解析出 port=5566
-        loadExternalWebApp(Paths.get(rootPath, externalJarFilename).toString(), port1);
-        new Thread(() -> startWebServer(port1)).start();
-        loadExternalWebApp(Paths.get(rootPath, externalJarFilename2).toString(), port2);
-        new Thread(() -> startWebServer(port2)).start();
-    }
-
-    public void startWebServer(int port) {
-        try (
-                MultiThreadIoEventLoopGroup bossGroup = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
-                MultiThreadIoEventLoopGroup workerGroup = new MultiThreadIoEventLoopGroup(NioIoHandler.newFactory());
-        ) {
-            // base on netty
-            ServerBootstrap serverBootstrap = new ServerBootstrap();
-            serverBootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .option(ChannelOption.SO_BACKLOG, 128)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel ch) {
-                            ch.pipeline()
-                                    .addLast(new StringDecoder())
-                                    .addLast(new StringEncoder())
-                                    .addLast(new PPServletDispatcher())
-                            ;
-                        }
-                    });
-            ChannelFuture future = serverBootstrap.bind(port);
-            log.info("[server] - server started at port: {}", port);
-            future.channel().closeFuture().sync();
+        List<PPWebAppSpec> specs = new ArrayList<>(webApps);
+        if (null != deployDir) {
+            try {
+                // 先监听再扫描，扫描和初始部署期间放进目录的 jar 也会部署；两边都看到的 jar 由 watcher 在初始部署完成之后再热部署一次
+                watch(Paths.get(deployDir));
+                specs.addAll(scanDeployDir(Paths.get(deployDir)));
+            } catch (IOException e) {
+                log.error("[server] - watch deploy dir error: {}", deployDir, e);
+            }
+        }
+        if (specs.isEmpty()) {
+            String rootPath = getClass().getClassLoader().getResource("").getPath();
+            String externalJar = Paths.get(rootPath, "mini-puppy-1.0-SNAPSHOT.jar").toString();
+            // 示例：两个 web app 共用 5555 端口，第二个的 context path 是 /app2
+            specs = List.of(new PPWebAppSpec(externalJar, 5555), new PPWebAppSpec(externalJar, 5555, "/app2"));
+        }
+        try {
+            // watcher 的热部署等初始部署完成，不会和它并发部署同一个 jar
+            redeployLock.lock();
+            try {
+                deployAll(specs);
+            } finally {
+                redeployLock.unlock();
+            }
+            PPNettyTransport.awaitClose(serverChannels);
         } catch (InterruptedException e) {
             log.error("[server] - server error", e);
+        } finally {
+            // stop 关闭 acceptor 之后由 stop 负责排空连接和停止 event loop
+            if (!stopping) {
+                shutdownEventLoops(0);
+            }
+        }
+    }
+
+    /**
+     * 所有 web app 共用一个 boss group 和一个 worker group，bootstrap 第一次绑定端口时创建。
+     * 每个端口的 acceptor channel 轮流注册在 boss group 的 event loop 上，I/O 线程数不随 web app 的数量增长
+     */
+    private synchronized ServerBootstrap bootstrap() {
+        if (null != bootstrap) {
+            return bootstrap;
+        }
+        PPInFlightLimiter inFlightLimiter = new PPInFlightLimiter(maxInFlightRequests);
+        bossGroup = new MultiThreadIoEventLoopGroup(transport.acceptorThreads(acceptors), transport.ioHandlerFactory());
+        workerGroup = new MultiThreadIoEventLoopGroup(transport.ioHandlerFactory());
+        bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(transport.serverChannelClass())
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new IdleStateHandler(0, 0, keepAliveTimeoutSeconds))
+                                .addLast(new PPHttpRequestDecoder())
+                                .addLast(new PPHttpResponseEncoder())
+                                .addLast(new PPHttpContentCompressor())
+                                .addLast(new PPServletDispatcher(maxKeepAliveRequests, inFlightLimiter))
+                        ;
+                        connections.add(ch);
+                    }
+                });
+        return bootstrap;
+    }
+
+    /**
+     * 通过共用的 event loop group 绑定 web app 的端口，绑定完成就返回；端口已经绑定时（多个 web app 共用端口）直接返回。
+     * 请求按连接的本地端口、Host 头和 context path 找到对应的 PPWebServletContext。绑定失败时端口不算已绑定，之后的部署会重新绑定
+     */
+    public synchronized void startWebServer(int port) throws InterruptedException {
+        if (!boundPorts.add(port)) {
+            log.info("[server] - port {} already bound, web app shares the listener", port);
+            return;
+        }
+        List<Channel> channels;
+        try {
+            channels = transport.bind(bootstrap(), port, acceptors);
+        } catch (Exception e) {
+            boundPorts.remove(port);
+            throw e;
         }
+        serverChannels.addAll(channels);
+        log.info("[server] - web app started at port: {}, transport: {}, acceptors: {}", port, transport, channels.size());
     }
 
-    public static class PPServletDispatcher extends SimpleChannelInboundHandler<String> {
+    /**
+     * 优雅停机：关闭所有端口的 acceptor，空闲的 keep-alive 连接立即关闭，正在处理的请求最多等 timeoutMillis 完成，
+     * 然后停止共用的 event loop，destroy 每个 web app 的 servlet 并关闭它的 classloader。返回所有连接是否在超时之前排空
+     */
+    public boolean stop(long timeoutMillis) {
+        stopping = true;
+        if (null != watcher) {
+            watcher.close();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        log.info("[server] - container stopping, web apps: {}, connections: {}", webContexts.size(), connections.size());
+        for (Channel channel : serverChannels) {
+            channel.close().awaitUninterruptibly();
+        }
+        boolean drained = connections.drain(timeoutMillis);
+        shutdownEventLoops(Math.max(0, deadline - System.currentTimeMillis()));
+        for (PPVirtualHosts.Binding binding : webContexts) {
+            ServletRegistry.removeWebContext(binding.port(), binding.context());
+            binding.context().destroy();
+            log.info("[server] - web app stopped at port: {}, context path: '{}'", binding.port(), binding.context().getContextPath());
+        }
+        webContexts.clear();
+        active.values().forEach(this::deleteSnapshot);
+        active.clear();
+        if (null != createdWorkDir) {
+            try {
+                Files.deleteIfExists(createdWorkDir);
+            } catch (IOException e) {
+                log.warn("[server] - delete work dir error: {}", createdWorkDir, e);
+            }
+        }
+        log.info("[server] - container stopped, drained: {}", drained);
+        return drained;
+    }
+
+    /**
+     * 停止共用的 event loop；timeoutMillis 为 0 时不等待
+     */
+    private synchronized void shutdownEventLoops(long timeoutMillis) {
+        if (null == bossGroup) {
+            return;
+        }
+        Future<?> boss = bossGroup.shutdownGracefully(0, timeoutMillis, TimeUnit.MILLISECONDS);
+        Future<?> worker = workerGroup.shutdownGracefully(0, timeoutMillis, TimeUnit.MILLISECONDS);
+        if (timeoutMillis > 0) {
+            boss.awaitUninterruptibly();
+            worker.awaitUninterruptibly();
+        }
+    }
+
+    public static class PPServletDispatcher extends PPHttpConnectionHandler {
+
+        public PPServletDispatcher(int maxKeepAliveRequests, PPInFlightLimiter inFlightLimiter) {
+            super(maxKeepAliveRequests, inFlightLimiter);
+        }
+
+        @Override
+        protected PPInFlightLimiter limiter(PPNettyRequest request) {
+            PPWebServletContext webContext = webContext(request);
+            return null == webContext ? null : webContext.getInFlightLimiter();
+        }
+
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, String requestStr) throws Exception {
-            log.info("[server] - received from client: {}", requestStr);
-            dispatch(ctx, new PPNettyRequest(requestStr));
+        protected HttpServlet route(PPNettyRequest request) {
+            PPWebServletContext webContext = webContext(request);
+            return null == webContext ? null : webContext.route(request);
         }
 
-        private void dispatch(ChannelHandlerContext ctx, PPNettyRequest request) throws ServletException, IOException {
-            if ("/".equals(request.getUrl())) {
-                ctx.writeAndFlush(InnerHTMLUtil.htmlResponse("<h1>Welcome - puppy-server base on netty-4.2-final</h1>"));
+        /**
+         * 按本地端口、Host 头和 context path 查表找到 web app，结果记在请求上，limiter 和 route 只查一次。
+         * 请求从找到 web app 开始占用它的一个引用，直到请求对象回收，热部署据此等待旧版本上的请求。
+         * 找到的 web app 刚好已经退役时寻址表里已经是新版本（或者已经移除），重新查找
+         */
+        private static PPWebServletContext webContext(PPNettyRequest request) {
+            PPRouteMatch match = request.getRouteMatch();
+            PPWebServletContext webContext = match.getWebContext();
+            while (null == webContext) {
+                webContext = ServletRegistry.resolveWebContext(request.getLocalPort(), request.getHeader("Host"), request.getUrl());
+                if (null == webContext) {
+                    return null;
+                }
+                if (!match.bindWebContext(webContext)) {
+                    webContext = null;
+                }
+            }
+            return webContext;
+        }
+
+        /**
+         * 欢迎页只在 / 没有 web app 处理时返回，根路径的 web app 可以注册自己的 /
+         */
+        @Override
+        protected void dispatch(ChannelHandlerContext ctx, PPNettyRequest request, HttpServlet servlet, PPNettyResponse response) throws ServletException, IOException {
+            if (null == servlet && request.getRouteMatch().isMethodNotAllowed()) {
+                InnerHTMLUtil.methodNotAllowed(response, request.getRouteMatch().getAllow());
+                return;
+            }
+            if (null == servlet && "/".equals(request.getUrl())) {
+                response.send(InnerHTMLUtil.WELCOME_PAGE);
                 return;
             }
-            PPWebServletContext webContext = ServletRegistry.getWebContext(request.getPort());
-            HttpServlet servlet = webContext.getServlet(request.getUrl());
             if (null == servlet) {
-                ctx.writeAndFlush(InnerHTMLUtil.htmlResponse("<h1>404 Not Found</h1>"));
+                response.send(InnerHTMLUtil.NOT_FOUND_PAGE);
                 return;
             }
-            servlet.service(request, new PPNettyResponse(ctx));
+            service(servlet, request, response);
         }
+    }
 
-        @Override
-        public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-            ctx.close();
+    /**
+     * 在有界的线程池上并行部署 web app，每个 web app 在自己的线程上、以自己的 classloader 作为 context classloader
+     * 完成打开 jar、读取索引、加载类、注册路由和绑定端口。单个 web app 失败不影响其他的，结果记在返回的部署记录里
+     */
+    public List<PPWebAppDeployment> deployAll(List<PPWebAppSpec> specs) throws InterruptedException {
+        long start = System.nanoTime();
+        int threads = Math.max(1, Math.min(deployThreads, specs.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("pp-deploy-", 0).factory());
+        List<PPWebAppDeployment> results = new ArrayList<>(specs.size());
+        try {
+            List<java.util.concurrent.Future<PPWebAppDeployment>> futures = new ArrayList<>(specs.size());
+            for (PPWebAppSpec spec : specs) {
+                futures.add(pool.submit(() -> deploy(spec, true, null)));
+            }
+            for (java.util.concurrent.Future<PPWebAppDeployment> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // deploy 自己处理异常，这里只会是线程池的问题
+                    log.error("[server] - deploy web app error", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
         }
+        long failed = results.stream().filter(deployment -> !deployment.isSuccess()).count();
+        long sum = results.stream().mapToLong(PPWebAppDeployment::getTotalMillis).sum();
+        log.info("[server] - deployed {} web apps, failed: {}, threads: {}, wall time: {}ms, sum of app time: {}ms",
+                results.size(), failed, threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), sum);
+        return results;
+    }
 
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-            log.error("[server] - read from http request error, channel: {}", ctx.channel(), cause);
-            ctx.close();
+    /**
+     * 利用自定义 classloader 加载外部的 servlet jar 包，并注册 servlet，不绑定端口
+     */
+    public PPWebAppDeployment loadExternalWebApp(String filePath, int port) {
+        return loadExternalWebApp(filePath, port, "");
+    }
+
+    /**
+     * 多个 web app 共用一个端口时按 contextPath 和 virtualHosts（Host 头，为空时作为端口的默认 host）区分
+     */
+    public PPWebAppDeployment loadExternalWebApp(String filePath, int port, String contextPath, String... virtualHosts) {
+        return deploy(new PPWebAppSpec(filePath, port, contextPath, virtualHosts), false, null);
+    }
+
+    /**
+     * 部署一个 web app 并记录各阶段的耗时。部署期间当前线程的 context classloader 是 web app 的 classloader，结束后还原。
+     * previous 不为 null 时是热部署：新的 context 预热之后原子替换 previous，不绑定端口
+     */
+    private PPWebAppDeployment deploy(PPWebAppSpec spec, boolean bind, PPWebAppDeployment previous) {
+        PPWebAppDeployment deployment = new PPWebAppDeployment(spec);
+        deployment.setThread(Thread.currentThread().getName());
+        deployments.put(spec, deployment);
+        Thread thread = Thread.currentThread();
+        ClassLoader previousClassLoader = thread.getContextClassLoader();
+        PPWebServletContext webCtx = null;
+        boolean registered = false;
+        try {
+            long start = System.nanoTime();
+            if (stopping) {
+                throw new IllegalStateException("container is stopping");
+            }
+            String filePath = spec.jarPath();
+            File file = null == filePath ? null : new File(filePath);
+            if (null == file || !filePath.endsWith(".jar") || !file.isFile()) {
+                throw new FileNotFoundException("web app jar not exists: " + filePath);
+            }
+            if (null != workDir) {
+                // 加载副本，热部署目录里的 jar 被覆盖时旧版本的 classloader 仍然读取自己的副本
+                Path snapshot = workDir.resolve(snapshots.incrementAndGet() + "-" + file.getName());
+                Files.copy(file.toPath(), snapshot);
+                deployment.setSnapshot(snapshot);
+                file = snapshot.toFile();
+            }
+            /*
+             * 每 load 一次 webapp 都需要一个新的 classloader，避免遇到相同的 servlet url 冲突
+             */
+            ExternalWebClassLoader ecl = new ExternalWebClassLoader(new URL[]{file.toURI().toURL()});
+            webCtx = new PPWebServletContext(ecl);
+            webCtx.setContextPath(spec.contextPath());
+            webCtx.setVirtualHosts(spec.virtualHosts());
+            thread.setContextClassLoader(ecl);
+            // URLClassLoader 打开 jar 失败时只当作找不到资源；这里先打开一次，写了一半或者损坏的 jar 直接部署失败，热部署时旧版本继续运行
+            try (JarFile jar = new JarFile(file)) {
+                jar.getManifest();
+            }
+            start = deployment.mark(PPWebAppDeployment.Phase.OPEN, start);
+
+            List<PPRoute> routes = webCtx.loadRouteIndex();
+            if (null == routes) {
+                throw new IllegalStateException("no route index " + ReqPathIndex.LOCATION + " in web app " + filePath
+                        + ", compile it with mini-puppy on the annotation processor path");
+            }
+            start = deployment.mark(PPWebAppDeployment.Phase.INDEX, start);
+
+            // 只加载不初始化，类不存在时部署失败，而不是等到第一次请求
+            Set<String> classNames = new HashSet<>();
+            for (PPRoute route : routes) {
+                if (classNames.add(route.holder().className())) {
+                    Class.forName(route.holder().className(), false, ecl);
+                }
+            }
+            start = deployment.mark(PPWebAppDeployment.Phase.LOAD, start);
+
+            webCtx.registerRoutes(routes);
+            start = deployment.mark(PPWebAppDeployment.Phase.INIT, start);
+            // 在部署线程上创建并 init 所有 servlet，之后才对请求可见
+            webCtx.warmUp();
+            start = deployment.mark(PPWebAppDeployment.Phase.WARM, start);
+            // 绑定端口会创建 event loop 线程，线程继承 context classloader，必须先还原，否则 classloader 无法回收
+            thread.setContextClassLoader(previousClassLoader);
+            if (bind) {
+                // 先绑定再注册：端口绑定失败时 web app 还没有对请求可见，按未注册处理
+                startWebServer(spec.port());
+                start = deployment.mark(PPWebAppDeployment.Phase.BIND, start);
+            }
+            if (null == previous) {
+                ServletRegistry.addWebContext(spec.port(), webCtx);
+                registered = true;
+                webContexts.add(new PPVirtualHosts.Binding(spec.port(), webCtx));
+                start = deployment.mark(PPWebAppDeployment.Phase.SWAP, start);
+            } else {
+                PPWebServletContext old = previous.getContext();
+                ServletRegistry.replaceWebContext(spec.port(), old, webCtx);
+                registered = true;
+                PPVirtualHosts.Binding replacement = new PPVirtualHosts.Binding(spec.port(), webCtx);
+                webContexts.replaceAll(binding -> binding.context() == old ? replacement : binding);
+                start = deployment.mark(PPWebAppDeployment.Phase.SWAP, start);
+            }
+            deployment.setContext(webCtx);
+            deployment.setRoutes(routes.size());
+            active.put(spec, deployment);
+            log.info("[server] - web app {} at port: {}, context path: '{}', virtual hosts: {}, routes: {}, {}",
+                    null == previous ? "deployed" : "redeployed", spec.port(), webCtx.getContextPath(), webCtx.getVirtualHosts(), routes.size(), deployment.timings());
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            deployment.setFailure(e);
+        } catch (Exception | LinkageError e) {
+            deployment.setFailure(e);
+            log.error("[server] - deploy web app failed: {}", spec, e);
+            if (null != webCtx && !registered) {
+                // 还没有注册到容器，释放已经创建的 servlet 和 classloader
+                webCtx.destroy();
+                deleteSnapshot(deployment);
+            }
+        } finally {
+            thread.setContextClassLoader(previousClassLoader);
         }
+        return deployment;
     }
 
     /**
-     * 利用自定义 classloader 加载外部的 servlet jar 包，并注册 servlet
+     * 热部署：构建新版本的 classloader 和 context 并预热，然后原子替换旧版本；旧版本上正在处理的请求完成之后
+     * destroy 旧的 servlet、关闭旧的 classloader。新版本构建失败时旧版本继续运行。spec 还没有部署时直接部署
      */
-    public void loadExternalWebApp(String filePath, int port) {
-        if (StringUtil.isNullOrEmpty(filePath) || !filePath.endsWith(".jar")) {
-            return;
+    public PPWebAppDeployment redeploy(PPWebAppSpec spec) throws InterruptedException {
+        redeployLock.lock();
+        try {
+            PPWebAppDeployment previous = active.get(spec);
+            if (null == previous) {
+                return deploy(spec, true, null);
+            }
+            PPWebAppDeployment next = deploy(spec, false, previous);
+            if (!next.isSuccess()) {
+                log.warn("[server] - redeploy failed, previous version keeps running: {}", spec);
+                return next;
+            }
+            long start = System.nanoTime();
+            retire(previous);
+            next.mark(PPWebAppDeployment.Phase.DRAIN, start);
+            log.info("[server] - previous version of {} drained and destroyed in {}ms", spec, next.getMillis(PPWebAppDeployment.Phase.DRAIN));
+            return next;
+        } finally {
+            redeployLock.unlock();
         }
-        /**
-         * 每 load 一次 webapp 都需要一个新的 classloader，避免遇到相同的 servlet url 冲突
-         */
-        ExternalWebClassLoader ecl = new ExternalWebClassLoader(new URL[]{});
+    }
+
+    /**
+     * 停止并移除一个 web app，正在处理的请求完成之后 destroy
+     */
+    public boolean undeploy(PPWebAppSpec spec) throws InterruptedException {
+        redeployLock.lock();
         try {
-            File file = new File(filePath);
-            if (file.exists()) {
-                ecl.addURL(file.toURL());
-            } else {
-                log.info("[server] - load external jar failed, file not exists: {}", filePath);
-                return;
+            PPWebAppDeployment current = active.get(spec);
+            if (null == current) {
+                return false;
             }
-        } catch (MalformedURLException e) {
-            log.error("[server] - load external jar error, get file url error", e);
+            PPWebServletContext webCtx = current.getContext();
+            ServletRegistry.removeWebContext(spec.port(), webCtx);
+            webContexts.removeIf(binding -> binding.context() == webCtx);
+            retire(current);
+            log.info("[server] - web app undeployed at port: {}, context path: '{}'", spec.port(), spec.contextPath());
+            return true;
+        } finally {
+            redeployLock.unlock();
         }
-        PPWebServletContext webCtx = new PPWebServletContext(ecl);
-        registerServlets(ecl, webCtx);
-        ServletRegistry.addWebContext(port, webCtx);
     }
 
-    public void registerServlets(ClassLoader cl, PPWebServletContext webCtx) {
-        /*
-         * 需要设置当前线程的 classloader 为我们自定义的 classloader，否则会报 java.lang.NoClassDefFoundError: javax/servlet/ServletException
-         */
-        Thread.currentThread().setContextClassLoader(cl);
-        ServiceLoader<HttpServlet> services = ServiceLoader.load(HttpServlet.class);
-        for (HttpServlet service : services) {
-            if (AnnotationUtils.isAnnotationPresent(service.getClass(), ReqPath.class)) {
-                ReqPath reqPath = AnnotationUtils.getAnnotation(service.getClass(), ReqPath.class);
-                for (String p : reqPath.path()) {
-                    webCtx.registerServlet(p, service);
-                    log.info("[server] - registered path: {} servlet: {}", p, service.toString());
-                }
+    /**
+     * 已经从寻址表里移除的旧版本：不再接受新的请求，等待已经找到它的请求全部结束（异步请求要等 servlet complete），
+     * 然后 destroy，交给 leakDetector 检查 classloader 是否被回收
+     */
+    private void retire(PPWebAppDeployment deployment) throws InterruptedException {
+        PPWebServletContext webCtx = deployment.getContext();
+        if (!webCtx.retire(drainTimeoutMillis)) {
+            log.warn("[server] - {} requests still in flight on old web app after {}ms, destroying it anyway", webCtx.references(), drainTimeoutMillis);
+        }
+        if (active.get(deployment.getSpec()) == deployment) {
+            active.remove(deployment.getSpec());
+        }
+        ClassLoader classLoader = webCtx.getCl();
+        webCtx.destroy();
+        deployment.setContext(null);
+        deleteSnapshot(deployment);
+        leakDetector.watch(deployment.getSpec().jarPath() + " " + deployment.getSpec().contextPath(), classLoader);
+    }
+
+    /**
+     * 没有指定 workDir 时使用临时目录，停机时删除
+     */
+    private synchronized void createWorkDir() throws IOException {
+        if (null == workDir) {
+            workDir = createdWorkDir = Files.createTempDirectory("pp-deploy");
+        }
+    }
+
+    private void deleteSnapshot(PPWebAppDeployment deployment) {
+        if (null == deployment.getSnapshot()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(deployment.getSnapshot());
+        } catch (IOException e) {
+            log.warn("[server] - delete web app snapshot error: {}", deployment.getSnapshot(), e);
+        }
+    }
+
+    /**
+     * 触发 GC，返回已经停止但 classloader 在 timeoutMillis 内仍然没有被回收的 web app
+     */
+    public List<String> findClassLoaderLeaks(long timeoutMillis) {
+        return leakDetector.findLeaks(timeoutMillis);
+    }
+
+    /**
+     * 监听热部署目录：jar 新增或者覆盖时热部署，删除时停止。目录里已有的 jar 需要另外部署，init 先监听再扫描部署
+     */
+    public synchronized void watch(Path dir) throws IOException {
+        createWorkDir();
+        if (null == watcher) {
+            watcher = new PPDeploymentWatcher(this, dir);
+            watcher.start();
+        }
+    }
+
+    /**
+     * 热部署目录里的 jar 变化之后调用：已经部署的 spec（可能有多个共用这个 jar）逐个热部署，新的 jar 按目录约定部署
+     */
+    void redeployJar(Path jar) throws InterruptedException {
+        List<PPWebAppSpec> specs = specsOf(jar);
+        if (specs.isEmpty()) {
+            specs = List.of(specFor(jar));
+        }
+        for (PPWebAppSpec spec : specs) {
+            redeploy(spec);
+        }
+        if (leakDetector.pending() > 0) {
+            findClassLoaderLeaks(leakCheckTimeoutMillis);
+        }
+    }
+
+    void undeployJar(Path jar) throws InterruptedException {
+        for (PPWebAppSpec spec : specsOf(jar)) {
+            undeploy(spec);
+        }
+        if (leakDetector.pending() > 0) {
+            findClassLoaderLeaks(leakCheckTimeoutMillis);
+        }
+    }
+
+    private List<PPWebAppSpec> specsOf(Path jar) {
+        Path target = jar.toAbsolutePath().normalize();
+        List<PPWebAppSpec> specs = new ArrayList<>();
+        for (PPWebAppSpec spec : active.keySet()) {
+            if (Paths.get(spec.jarPath()).toAbsolutePath().normalize().equals(target)) {
+                specs.add(spec);
             }
         }
-        // 操作完成还原当前线程的 classloader
-        Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+        return specs;
+    }
+
+    private List<PPWebAppSpec> scanDeployDir(Path dir) throws IOException {
+        createWorkDir();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".jar")).sorted().map(this::specFor).toList();
+        }
+    }
+
+    /**
+     * 热部署目录的约定：ROOT.jar 部署在根路径，其他 jar 部署在 /&lt;文件名&gt;，端口是 defaultPort
+     */
+    private PPWebAppSpec specFor(Path jar) {
+        String name = jar.getFileName().toString();
+        name = name.substring(0, name.length() - ".jar".length());
+        return new PPWebAppSpec(jar.toAbsolutePath().normalize().toString(), defaultPort, "ROOT".equals(name) ? "" : "/" + name);
     }
 
     public static void main(String[] args) {
         log.info("[main] ready to start server");
-        new PPMultiWebAppNettyContainer("localhost", 5566).startAsync();
+        PPMultiWebAppNettyContainer container = new PPMultiWebAppNettyContainer("localhost", 5566);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> container.stop(30_000)));
+        container.startAsync();
     }
 }
@@ -0,0 +1,86 @@
+package one.mini.server._4multiwebapp;
+
+import lombok.Data;
+import one.mini.servlet.PPWebServletContext;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个 web app 的部署结果和各个阶段的耗时：
+ * <ul>
+ *     <li>OPEN：复制 jar（热部署时），创建 classloader，打开 jar</li>
+ *     <li>INDEX：读取编译时生成的路由索引</li>
+ *     <li>LOAD：加载 servlet 类（不初始化、不实例化），没有索引的 jar 在 INDEX 就部署失败</li>
+ *     <li>INIT：编译路由表</li>
+ *     <li>WARM：在部署线程上创建并 init 所有 servlet</li>
+ *     <li>BIND：绑定端口，端口已经被其他 web app 绑定时接近 0，绑定失败时部署失败，不会注册到容器</li>
+ *     <li>SWAP：注册到容器的寻址表，热部署时原子替换旧版本</li>
+ *     <li>DRAIN：热部署时等待旧版本上的请求完成，destroy 旧版本</li>
+ * </ul>
+ * 只输出经历过的阶段
+ */
+@Data
+public class PPWebAppDeployment {
+
+    public enum Phase {
+        OPEN, INDEX, LOAD, INIT, WARM, BIND, SWAP, DRAIN
+    }
+
+    private final PPWebAppSpec spec;
+    private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+    /**
+     * 旧版本被替换或者停止之后置为 null，不再引用它的 classloader
+     */
+    private PPWebServletContext context;
+    /**
+     * 热部署时实际加载的 jar 副本
+     */
+    private Path snapshot;
+    private int routes;
+    /**
+     * 部署失败的原因，成功时为 null
+     */
+    private Throwable failure;
+    /**
+     * 执行部署的线程
+     */
+    private String thread;
+
+    public boolean isSuccess() {
+        return null == failure;
+    }
+
+    /**
+     * 记录 phase 从 startNanos 到现在的耗时，返回现在的时间作为下一个阶段的开始
+     */
+    long mark(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        phaseNanos.put(phase, now - startNanos);
+        return now;
+    }
+
+    public long getMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.getOrDefault(phase, 0L));
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    /**
+     * open: 3ms, index: 1ms, load: 12ms, init: 2ms, bind: 0ms, total: 18ms
+     */
+    public String timings() {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (Phase phase : Phase.values()) {
+            if (phaseNanos.containsKey(phase)) {
+                joiner.add(phase.name().toLowerCase() + ": " + getMillis(phase) + "ms");
+            }
+        }
+        return joiner.add("total: " + getTotalMillis() + "ms").toString();
+    }
+}
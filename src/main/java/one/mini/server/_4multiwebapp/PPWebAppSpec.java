@@ -0,0 +1,22 @@
+package one.mini.server._4multiwebapp;
+
+import java.util.List;
+
+/**
+ * 一个要部署的 web app：jar 文件、端口，以及共用端口时的 context path 和 virtual host
+ */
+public record PPWebAppSpec(String jarPath, int port, String contextPath, List<String> virtualHosts) {
+
+    public PPWebAppSpec {
+        contextPath = null == contextPath ? "" : contextPath;
+        virtualHosts = null == virtualHosts ? List.of() : List.copyOf(virtualHosts);
+    }
+
+    public PPWebAppSpec(String jarPath, int port) {
+        this(jarPath, port, "", List.of());
+    }
+
+    public PPWebAppSpec(String jarPath, int port, String contextPath, String... virtualHosts) {
+        this(jarPath, port, contextPath, List.of(virtualHosts));
+    }
+}
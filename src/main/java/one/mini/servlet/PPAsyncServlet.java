@@ -0,0 +1,55 @@
+package one.mini.servlet;
+
+import one.mini.domain.AbstractPPRequest;
+import one.mini.domain.PPAsyncContext;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 返回 CompletionStage 的 servlet：stage 完成时响应结束，异常完成时按 servlet 抛出异常处理。
+ * 等待期间不占用线程，只在支持异步的引擎（Netty、NIO）上可用。
+ */
+public interface PPAsyncServlet {
+
+    CompletionStage<?> serviceAsync(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException;
+
+    /**
+     * 引擎调用 servlet 的入口：PPAsyncServlet 开始异步处理并在 stage 完成时 complete，其他的直接调用 service。
+     * 开始异步处理之后同步抛出异常时 servlet 不会再 complete，这里 fail 掉异步上下文，否则请求对象等不到释放、不会回收
+     */
+    static void service(HttpServlet servlet, AbstractPPRequest request, HttpServletResponse response) throws ServletException, IOException {
+        try {
+            serviceOrStart(servlet, request, response);
+        } catch (ServletException | IOException | RuntimeException e) {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().fail(e);
+            }
+            throw e;
+        }
+    }
+
+    private static void serviceOrStart(HttpServlet servlet, AbstractPPRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (!(servlet instanceof PPAsyncServlet async)) {
+            servlet.service(request, response);
+            return;
+        }
+        PPAsyncContext context = request.startAsync();
+        CompletionStage<?> stage = async.serviceAsync(request, response);
+        if (null == stage) {
+            context.complete();
+            return;
+        }
+        stage.whenComplete((result, failure) -> {
+            if (null == failure) {
+                context.complete();
+            } else {
+                context.fail(failure);
+            }
+        });
+    }
+}
@@ -0,0 +1,131 @@
+package one.mini.servlet;
+
+import javax.servlet.http.HttpServlet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一条路由：url pattern + method + servlet。pattern 按 servlet 规范分为四类：
+ * <ul>
+ *     <li>精确匹配：/about、/users/{id}，{name} 占一个完整的段，匹配时捕获为路径参数</li>
+ *     <li>前缀匹配：/api/*，匹配 /api 本身和它下面的所有路径</li>
+ *     <li>扩展名匹配：*.html，匹配最后一段的扩展名</li>
+ *     <li>默认 servlet：/，其他都匹配不上时使用</li>
+ * </ul>
+ * method 为 null 时匹配所有 method。
+ */
+public final class PPRoute {
+
+    enum Kind {
+        EXACT, PREFIX, EXTENSION, DEFAULT
+    }
+
+    private final String pattern;
+    private final String method;
+    private final PPServletHolder holder;
+
+    final Kind kind;
+    /**
+     * 精确匹配和前缀匹配的各个段，路径参数的段为 null；扩展名匹配时是扩展名（不含 '.'）
+     */
+    final String[] segments;
+    final String[] paramNames;
+
+    public PPRoute(String pattern, String method, HttpServlet servlet) {
+        this(pattern, method, null == servlet ? null : PPServletHolder.of(servlet));
+    }
+
+    /**
+     * servlet 由 holder 创建并 init，部署时在 {@link PPWebServletContext#warmUp()} 中完成
+     */
+    public PPRoute(String pattern, String method, PPServletHolder holder) {
+        if (null == pattern || null == holder) {
+            throw new IllegalArgumentException("route pattern and servlet must not be null");
+        }
+        this.pattern = pattern;
+        this.method = null == method || method.isEmpty() || "*".equals(method) ? null : method.toUpperCase();
+        this.holder = holder;
+        if ("/".equals(pattern)) {
+            kind = Kind.DEFAULT;
+            segments = new String[0];
+            paramNames = segments;
+        } else if (pattern.startsWith("*.")) {
+            String extension = pattern.substring(2);
+            if (extension.isEmpty() || extension.indexOf('/') >= 0 || extension.indexOf('*') >= 0) {
+                throw new IllegalArgumentException("invalid extension mapping: " + pattern);
+            }
+            kind = Kind.EXTENSION;
+            segments = new String[]{extension};
+            paramNames = new String[0];
+        } else {
+            String path = pattern;
+            if (path.equals("/*") || path.endsWith("/*")) {
+                kind = Kind.PREFIX;
+                path = path.substring(0, path.length() - 2);
+            } else {
+                kind = Kind.EXACT;
+            }
+            if (!path.isEmpty() && path.charAt(0) != '/') {
+                throw new IllegalArgumentException("url pattern must start with '/' or '*.': " + pattern);
+            }
+            List<String> params = new ArrayList<>();
+            segments = split(path, params);
+            paramNames = params.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * "" 和 "/" 没有段，"/a/b/" 是 a、b、""
+     */
+    private String[] split(String path, List<String> params) {
+        if (path.length() <= 1) {
+            return new String[0];
+        }
+        String[] parts = path.substring(1).split("/", -1);
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.indexOf('*') >= 0) {
+                throw new IllegalArgumentException("'*' is only allowed as '/*' suffix or '*.' prefix: " + pattern);
+            }
+            if (part.startsWith("{") && part.endsWith("}") && part.length() > 2) {
+                String name = part.substring(1, part.length() - 1);
+                if (params.contains(name)) {
+                    throw new IllegalArgumentException("duplicate path parameter " + name + ": " + pattern);
+                }
+                params.add(name);
+                parts[i] = null;
+            } else if (part.indexOf('{') >= 0 || part.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("path parameter must be a whole segment: " + pattern);
+            }
+        }
+        return parts;
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    /**
+     * 还没有创建时会创建 servlet，只查看时用 {@link #holder()}
+     */
+    public HttpServlet servlet() {
+        return holder.get();
+    }
+
+    public PPServletHolder holder() {
+        return holder;
+    }
+
+    boolean sameTarget(PPRoute other) {
+        return pattern.equals(other.pattern) && (null == method ? null == other.method : method.equals(other.method));
+    }
+
+    @Override
+    public String toString() {
+        return (null == method ? "*" : method) + " " + pattern + " -> " + holder;
+    }
+}
@@ -0,0 +1,183 @@
+package one.mini.servlet;
+
+import javax.servlet.http.HttpServlet;
+import java.util.Arrays;
+
+/**
+ * 一次路由匹配的结果，挂在请求上复用。匹配过程只记录偏移量，
+ * 路径参数、servletPath 和 pathInfo 在 servlet 读取时才从请求路径截取
+ */
+public final class PPRouteMatch {
+
+    String path;
+    /**
+     * context path 的长度，servletPath 从这里开始
+     */
+    int base;
+    PPRoute route;
+    /**
+     * servletPath 的结束位置，之后是 pathInfo
+     */
+    int servletPathEnd;
+    /**
+     * 路径匹配上了，但没有接受这个 method 的路由；allow 是这个路径接受的 method
+     */
+    String allow;
+
+    int paramCount;
+    int[] starts = new int[4];
+    int[] ends = new int[4];
+    /**
+     * 前缀匹配时先记录最长的候选，和它当时捕获的参数
+     */
+    PPRoute best;
+    int bestEnd = -1;
+    int bestCount;
+    int[] bestStarts = new int[4];
+    int[] bestEnds = new int[4];
+
+    /**
+     * 共用端口时请求所属的 web app，由容器在路由之前找到；请求占用它的一个引用，clear 时释放
+     */
+    private PPWebServletContext webContext;
+
+    void reset(String path, int base, int maxParams) {
+        this.path = path;
+        this.base = base;
+        route = null;
+        servletPathEnd = 0;
+        allow = null;
+        paramCount = 0;
+        best = null;
+        bestEnd = -1;
+        bestCount = 0;
+        if (starts.length < maxParams) {
+            starts = new int[maxParams];
+            ends = new int[maxParams];
+            bestStarts = new int[maxParams];
+            bestEnds = new int[maxParams];
+        }
+    }
+
+    /**
+     * 请求复用前清空，不保留对路径和 servlet 的引用
+     */
+    public void clear() {
+        path = null;
+        base = 0;
+        if (null != webContext) {
+            webContext.release();
+            webContext = null;
+        }
+        route = null;
+        allow = null;
+        best = null;
+    }
+
+    void push(int start, int end) {
+        starts[paramCount] = start;
+        ends[paramCount] = end;
+        paramCount++;
+    }
+
+    void offer(PPRoute candidate, int end) {
+        if (end > bestEnd) {
+            best = candidate;
+            bestEnd = end;
+            bestCount = paramCount;
+            System.arraycopy(starts, 0, bestStarts, 0, paramCount);
+            System.arraycopy(ends, 0, bestEnds, 0, paramCount);
+        }
+    }
+
+    void acceptBest() {
+        route = best;
+        servletPathEnd = bestEnd;
+        paramCount = bestCount;
+        System.arraycopy(bestStarts, 0, starts, 0, bestCount);
+        System.arraycopy(bestEnds, 0, ends, 0, bestCount);
+    }
+
+    void accept(PPRoute matched, int servletPathEnd) {
+        route = matched;
+        this.servletPathEnd = servletPathEnd;
+    }
+
+    public HttpServlet servlet() {
+        return null == route ? null : route.servlet();
+    }
+
+    public PPRoute route() {
+        return route;
+    }
+
+    /**
+     * 没有匹配上是因为 method 不被接受，这时应该返回 405
+     */
+    public boolean isMethodNotAllowed() {
+        return null == route && null != allow;
+    }
+
+    public String getAllow() {
+        return allow;
+    }
+
+    /**
+     * 路由 pattern 中 {name} 对应的值，没有时返回 null
+     */
+    public String getPathParameter(String name) {
+        if (null == route) {
+            return null;
+        }
+        String[] names = route.paramNames;
+        for (int i = 0; i < names.length && i < paramCount; i++) {
+            if (names[i].equals(name)) {
+                return path.substring(starts[i], ends[i]);
+            }
+        }
+        return null;
+    }
+
+    public String[] getPathParameterNames() {
+        return null == route ? new String[0] : Arrays.copyOf(route.paramNames, paramCount);
+    }
+
+    /**
+     * 按 servlet 规范：前缀匹配时是前缀部分，其他情况是整个路径
+     */
+    public String getServletPath() {
+        if (null == route) {
+            return "";
+        }
+        return base == 0 && servletPathEnd >= path.length() ? path : path.substring(base, servletPathEnd);
+    }
+
+    public String getContextPath() {
+        return base == 0 ? "" : path.substring(0, base);
+    }
+
+    public PPWebServletContext getWebContext() {
+        return webContext;
+    }
+
+    /**
+     * 请求开始使用这个 web app，占用的引用在请求对象回收时释放；web app 已经退役时返回 false
+     */
+    public boolean bindWebContext(PPWebServletContext webContext) {
+        if (!webContext.retain()) {
+            return false;
+        }
+        this.webContext = webContext;
+        return true;
+    }
+
+    /**
+     * 前缀匹配时是前缀之后的部分，其他情况为 null
+     */
+    public String getPathInfo() {
+        if (null == route || servletPathEnd >= path.length()) {
+            return null;
+        }
+        return path.substring(servletPathEnd);
+    }
+}
@@ -0,0 +1,370 @@
+package one.mini.servlet;
+
+import one.mini.http.PPHttpMethods;
+
+import javax.servlet.http.HttpServlet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+/**
+ * 注册时编译好的不可变路由表。精确匹配和前缀匹配的 pattern 按段组成一棵 radix tree：
+ * 只有一个静态子节点、本身又不是终点的节点会和子节点合并成一条多段的边，
+ * 同一层的静态子节点按第一段排序后二分查找，路径参数是每层最多一个的通配子节点。
+ * <p>
+ * 匹配顺序按 servlet 规范：精确匹配 &gt; 最长的前缀匹配 &gt; 扩展名匹配 &gt; 默认 servlet。
+ * 同一层静态段优先于路径参数，静态分支匹配不上时回溯到参数分支。
+ * 匹配只在请求路径上比较字符、在 {@link PPRouteMatch} 里记录偏移量，不创建对象。
+ * <p>
+ * 路径匹配上但 method 不被接受时继续找优先级更低的路由，都没有时 {@link PPRouteMatch#isMethodNotAllowed()} 为 true。
+ */
+public final class PPRouter {
+
+    public static final PPRouter EMPTY = compile(List.of());
+
+    private final List<PPRoute> routes;
+    private final Node root;
+    private final String[] extensions;
+    private final Endpoint[] extensionEndpoints;
+    private final Endpoint defaults;
+    private final int maxParams;
+
+    private PPRouter(List<PPRoute> routes, Node root, String[] extensions, Endpoint[] extensionEndpoints, Endpoint defaults, int maxParams) {
+        this.routes = routes;
+        this.root = root;
+        this.extensions = extensions;
+        this.extensionEndpoints = extensionEndpoints;
+        this.defaults = defaults;
+        this.maxParams = maxParams;
+    }
+
+    /**
+     * 编译路由表，同一个 pattern + method 只能有一条路由，后面的覆盖前面的
+     */
+    public static PPRouter compile(Collection<PPRoute> routes) {
+        List<PPRoute> unique = new ArrayList<>(routes.size());
+        for (PPRoute route : routes) {
+            unique.removeIf(route::sameTarget);
+            unique.add(route);
+        }
+        Draft root = new Draft();
+        Map<String, List<PPRoute>> extensions = new TreeMap<>();
+        List<PPRoute> defaults = new ArrayList<>();
+        int maxParams = 0;
+        for (PPRoute route : unique) {
+            switch (route.kind) {
+                case EXACT, PREFIX -> {
+                    Draft node = root;
+                    for (String segment : route.segments) {
+                        if (null == segment) {
+                            node = null == node.param ? (node.param = new Draft()) : node.param;
+                        } else {
+                            node = node.statics.computeIfAbsent(segment, s -> new Draft());
+                        }
+                    }
+                    (route.kind == PPRoute.Kind.EXACT ? node.exact : node.prefix).add(route);
+                    maxParams = Math.max(maxParams, route.paramNames.length);
+                }
+                case EXTENSION -> extensions.computeIfAbsent(route.segments[0], s -> new ArrayList<>()).add(route);
+                case DEFAULT -> defaults.add(route);
+            }
+        }
+        String[] extensionKeys = extensions.keySet().toArray(new String[0]);
+        Endpoint[] extensionEndpoints = new Endpoint[extensionKeys.length];
+        for (int i = 0; i < extensionKeys.length; i++) {
+            extensionEndpoints[i] = Endpoint.of(extensions.get(extensionKeys[i]));
+        }
+        return new PPRouter(List.copyOf(unique), root.freeze(""), extensionKeys, extensionEndpoints, Endpoint.of(defaults), maxParams);
+    }
+
+    public List<PPRoute> routes() {
+        return routes;
+    }
+
+    /**
+     * 匹配请求，结果写进 match 并返回 servlet；method 为 null 时不检查 method
+     */
+    public HttpServlet match(String method, String path, PPRouteMatch match) {
+        return match(method, path, 0, match);
+    }
+
+    /**
+     * 从 base 开始匹配，path 的前 base 个字符是 web app 的 context path
+     */
+    public HttpServlet match(String method, String path, int base, PPRouteMatch match) {
+        match.reset(path, base, maxParams);
+        int end = path.length();
+        int length = end - base;
+        if (length == 0 || path.charAt(base) == '/') {
+            // "/" 没有段，对应 pattern ""（context root）
+            if (exact(root, method, path, length == 1 ? end : base, end, match)) {
+                return match.servlet();
+            }
+            match.paramCount = 0;
+            prefix(root, method, path, base, end, match);
+            if (null != match.best) {
+                match.acceptBest();
+                return match.servlet();
+            }
+            match.paramCount = 0;
+        }
+        Endpoint extension = extension(path, base, end);
+        if (accept(extension, method, end, match) || accept(defaults, method, end, match)) {
+            return match.servlet();
+        }
+        return null;
+    }
+
+    private static boolean exact(Node node, String method, String path, int pos, int end, PPRouteMatch match) {
+        if (pos == end) {
+            return accept(node.exact, method, end, match);
+        }
+        int segmentStart = pos + 1;
+        int segmentEnd = segmentEnd(path, segmentStart, end);
+        Node child = node.child(path, segmentStart, segmentEnd);
+        if (null != child) {
+            int next = child.consume(path, segmentStart, end);
+            if (next >= 0 && exact(child, method, path, next, end, match)) {
+                return true;
+            }
+        }
+        if (null != node.param && segmentEnd > segmentStart) {
+            match.push(segmentStart, segmentEnd);
+            if (exact(node.param, method, path, segmentEnd, end, match)) {
+                return true;
+            }
+            match.paramCount--;
+        }
+        return false;
+    }
+
+    /**
+     * 遍历所有能走到的节点，记录消耗路径最长的前缀匹配
+     */
+    private static void prefix(Node node, String method, String path, int pos, int end, PPRouteMatch match) {
+        if (null != node.prefix) {
+            PPRoute route = node.prefix.select(method);
+            if (null != route) {
+                match.offer(route, pos);
+            } else if (null == match.allow) {
+                match.allow = node.prefix.allow;
+            }
+        }
+        if (pos == end) {
+            return;
+        }
+        int segmentStart = pos + 1;
+        int segmentEnd = segmentEnd(path, segmentStart, end);
+        Node child = node.child(path, segmentStart, segmentEnd);
+        if (null != child) {
+            int next = child.consume(path, segmentStart, end);
+            if (next >= 0) {
+                prefix(child, method, path, next, end, match);
+            }
+        }
+        if (null != node.param && segmentEnd > segmentStart) {
+            match.push(segmentStart, segmentEnd);
+            prefix(node.param, method, path, segmentEnd, end, match);
+            match.paramCount--;
+        }
+    }
+
+    private Endpoint extension(String path, int base, int end) {
+        if (extensions.length == 0) {
+            return null;
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot < base || dot < path.lastIndexOf('/')) {
+            return null;
+        }
+        int index = search(extensions, path, dot + 1, end);
+        return index < 0 ? null : extensionEndpoints[index];
+    }
+
+    private static boolean accept(Endpoint endpoint, String method, int end, PPRouteMatch match) {
+        if (null == endpoint) {
+            return false;
+        }
+        PPRoute route = endpoint.select(method);
+        if (null == route) {
+            if (null == match.allow) {
+                match.allow = endpoint.allow;
+            }
+            return false;
+        }
+        match.accept(route, end);
+        return true;
+    }
+
+    private static int segmentEnd(String path, int start, int end) {
+        int slash = path.indexOf('/', start);
+        return slash < 0 ? end : slash;
+    }
+
+    /**
+     * 在排好序的 keys 中二分查找 path[start, end)，比较规则和 String.compareTo 一致
+     */
+    private static int search(String[] keys, String path, int start, int end) {
+        int low = 0;
+        int high = keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(path, start, end, keys[mid]);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(String path, int start, int end, String key) {
+        int length = end - start;
+        int n = Math.min(length, key.length());
+        for (int i = 0; i < n; i++) {
+            int cmp = path.charAt(start + i) - key.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length();
+    }
+
+    /**
+     * 同一个 pattern 上按 method 区分的路由，以及 405 时返回的 Allow
+     */
+    private static final class Endpoint {
+
+        private final PPRoute[] routes;
+        private final String allow;
+
+        private Endpoint(PPRoute[] routes, String allow) {
+            this.routes = routes;
+            this.allow = allow;
+        }
+
+        private static Endpoint of(List<PPRoute> routes) {
+            if (routes.isEmpty()) {
+                return null;
+            }
+            StringJoiner allow = new StringJoiner(", ");
+            for (PPRoute route : routes) {
+                if (null != route.method()) {
+                    allow.add(route.method());
+                }
+            }
+            if (routes.stream().anyMatch(route -> PPHttpMethods.GET.equals(route.method()))
+                    && routes.stream().noneMatch(route -> PPHttpMethods.HEAD.equals(route.method()))) {
+                allow.add(PPHttpMethods.HEAD);
+            }
+            return new Endpoint(routes.toArray(new PPRoute[0]), allow.toString());
+        }
+
+        /**
+         * 优先 method 完全相同的路由，HEAD 可以由 GET 的路由处理，最后是不限 method 的路由
+         */
+        private PPRoute select(String method) {
+            if (null == method) {
+                return routes[0];
+            }
+            PPRoute get = null;
+            PPRoute any = null;
+            for (PPRoute route : routes) {
+                String accepted = route.method();
+                if (null == accepted) {
+                    any = route;
+                } else if (accepted.equals(method)) {
+                    return route;
+                } else if (PPHttpMethods.GET.equals(accepted) && PPHttpMethods.HEAD.equals(method)) {
+                    get = route;
+                }
+            }
+            return null != get ? get : any;
+        }
+    }
+
+    /**
+     * 编译后的节点。label 是这条边上的一个或多个静态段（不含开头的 '/'），参数节点的 label 为 null
+     */
+    private static final class Node {
+
+        private final String label;
+        private final String[] keys;
+        private final Node[] children;
+        private final Node param;
+        private final Endpoint exact;
+        private final Endpoint prefix;
+
+        private Node(String label, String[] keys, Node[] children, Node param, Endpoint exact, Endpoint prefix) {
+            this.label = label;
+            this.keys = keys;
+            this.children = children;
+            this.param = param;
+            this.exact = exact;
+            this.prefix = prefix;
+        }
+
+        private Node child(String path, int start, int end) {
+            if (keys.length == 0) {
+                return null;
+            }
+            int index = search(keys, path, start, end);
+            return index < 0 ? null : children[index];
+        }
+
+        /**
+         * 从 start 开始匹配这条边，必须在段的边界结束；返回之后的位置，匹配不上返回 -1
+         */
+        private int consume(String path, int start, int end) {
+            int length = label.length();
+            if (!path.regionMatches(start, label, 0, length)) {
+                return -1;
+            }
+            int next = start + length;
+            return next == end || path.charAt(next) == '/' ? next : -1;
+        }
+    }
+
+    /**
+     * 编译前的可变节点
+     */
+    private static final class Draft {
+
+        private final TreeMap<String, Draft> statics = new TreeMap<>();
+        private Draft param;
+        private final List<PPRoute> exact = new ArrayList<>();
+        private final List<PPRoute> prefix = new ArrayList<>();
+
+        /**
+         * 生成不可变节点：只有一个静态子节点、没有参数子节点、本身不是终点的节点和子节点合并成一条边
+         */
+        private Node freeze(String label) {
+            Draft node = this;
+            StringBuilder merged = null;
+            while (null != label && node.statics.size() == 1 && null == node.param
+                    && node.exact.isEmpty() && node.prefix.isEmpty() && !label.isEmpty()) {
+                Map.Entry<String, Draft> only = node.statics.firstEntry();
+                if (null == merged) {
+                    merged = new StringBuilder(label);
+                }
+                merged.append('/').append(only.getKey());
+                node = only.getValue();
+            }
+            String[] keys = node.statics.keySet().toArray(new String[0]);
+            Node[] children = new Node[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                children[i] = node.statics.get(keys[i]).freeze(keys[i]);
+            }
+            return new Node(null == merged ? label : merged.toString(), keys, children,
+                    null == node.param ? null : node.param.freeze(null),
+                    Endpoint.of(node.exact), Endpoint.of(node.prefix));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package one.mini.servlet;
+
+import javax.servlet.http.HttpServlet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 可以修改的路由集合：每次修改都重新编译出一个新的 {@link PPRouter}，再整体替换 volatile 引用。
+ * 请求线程读到的总是一个完整的路由表，查找时不加锁；修改之间用锁串行
+ */
+public class PPRoutes {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile PPRouter router = PPRouter.EMPTY;
+
+    public PPRouter router() {
+        return router;
+    }
+
+    public void add(PPRoute route) {
+        addAll(List.of(route));
+    }
+
+    /**
+     * 批量注册只编译一次
+     */
+    public void addAll(Collection<PPRoute> routes) {
+        lock.lock();
+        try {
+            List<PPRoute> all = new ArrayList<>(router.routes());
+            all.addAll(routes);
+            router = PPRouter.compile(all);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除 pattern 上属于这个 servlet 的路由，servlet 为 null 时移除 pattern 上所有的路由
+     */
+    public void remove(String pattern, HttpServlet servlet) {
+        removeIf(route -> route.pattern().equals(pattern) && (null == servlet || route.holder().peek() == servlet));
+    }
+
+    /**
+     * 批量移除之前注册的这些路由对象，只编译一次
+     */
+    public void removeAll(Collection<PPRoute> routes) {
+        Set<PPRoute> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        targets.addAll(routes);
+        removeIf(targets::contains);
+    }
+
+    private void removeIf(Predicate<PPRoute> filter) {
+        lock.lock();
+        try {
+            List<PPRoute> all = new ArrayList<>(router.routes());
+            if (all.removeIf(filter)) {
+                router = PPRouter.compile(all);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            router = PPRouter.EMPTY;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<PPRoute> routes() {
+        return router.routes();
+    }
+}
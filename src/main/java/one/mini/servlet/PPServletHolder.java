@@ -0,0 +1,116 @@
+package one.mini.servlet;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 路由指向的 servlet。从路由索引注册的 servlet 只记录类名，在 web app 的 classloader 下加载、实例化并 init 之后才对请求可见，
+ * 同一个类的多个路由共用一个 holder，也就共用一个实例。
+ * <p>
+ * 部署时由 {@link PPWebServletContext#warmUp()} 在部署线程上创建，不在 event loop 上加载类；
+ * 只有 init 成功的 servlet 会被 {@link PPWebServletContext#destroy()} destroy。{@link #of(HttpServlet)} 的实例由调用方负责 init
+ */
+public final class PPServletHolder {
+
+    private final String className;
+    private final ClassLoader classLoader;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile HttpServlet servlet;
+
+    private PPServletHolder(String className, ClassLoader classLoader, HttpServlet servlet) {
+        this.className = className;
+        this.classLoader = classLoader;
+        this.servlet = servlet;
+    }
+
+    public static PPServletHolder of(HttpServlet servlet) {
+        return new PPServletHolder(servlet.getClass().getName(), servlet.getClass().getClassLoader(), servlet);
+    }
+
+    public static PPServletHolder lazy(String className, ClassLoader classLoader) {
+        return new PPServletHolder(className, classLoader, null);
+    }
+
+    public String className() {
+        return className;
+    }
+
+    /**
+     * 已经创建的实例，还没有创建时返回 null，不会触发创建
+     */
+    public HttpServlet peek() {
+        return servlet;
+    }
+
+    /**
+     * 返回 servlet 实例，第一次调用时创建并 init；失败时抛出 IllegalStateException，下次调用重试
+     */
+    public HttpServlet get() {
+        HttpServlet current = servlet;
+        if (null != current) {
+            return current;
+        }
+        lock.lock();
+        try {
+            if (null == servlet) {
+                servlet = create();
+            }
+            return servlet;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private HttpServlet create() {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            Class<?> clazz = Class.forName(className, true, classLoader);
+            HttpServlet created = clazz.asSubclass(HttpServlet.class).getConstructor().newInstance();
+            created.init(new Config(className));
+            return created;
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException | ServletException e) {
+            throw new IllegalStateException("create servlet " + className + " error", e);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    /**
+     * 没有 web.xml，也就没有 init 参数；容器没有实现 ServletContext，getServletContext 返回 null
+     */
+    private record Config(String servletName) implements ServletConfig {
+
+        @Override
+        public String getServletName() {
+            return servletName;
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return null;
+        }
+
+        @Override
+        public String getInitParameter(String name) {
+            return null;
+        }
+
+        @Override
+        public Enumeration<?> getInitParameterNames() {
+            return Collections.emptyEnumeration();
+        }
+    }
+
+    @Override
+    public String toString() {
+        HttpServlet current = servlet;
+        return null == current ? className + " (not created)" : current.toString();
+    }
+}
@@ -0,0 +1,270 @@
+package one.mini.servlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 多个 web app 共用端口时的寻址表：本地端口 -&gt; Host -&gt; context path -&gt; web app。
+ * <p>
+ * 注册变化时整体重新编译：端口排序后二分查找；Host（忽略大小写、去掉端口）和 context path 的第一段
+ * 各自放进开放寻址的 hash 表，直接对 Host 头和请求路径的片段计算 hash、比较字符，查找时不创建对象。
+ * 同一个第一段下的 context path 按长度从长到短排列，最长的前缀优先。
+ * <p>
+ * 没有配置 virtual host 的 web app 属于默认 host，Host 头不匹配任何配置的名字时使用默认 host。
+ */
+public final class PPVirtualHosts {
+
+    public static final PPVirtualHosts EMPTY = compile(List.of());
+
+    /**
+     * 一个 web app 绑定在哪个端口上，host 和 context path 由 web app 自己配置
+     */
+    public record Binding(int port, PPWebServletContext context) {
+    }
+
+    private final List<Binding> bindings;
+    private final int[] ports;
+    private final PortTable[] tables;
+
+    private PPVirtualHosts(List<Binding> bindings, int[] ports, PortTable[] tables) {
+        this.bindings = bindings;
+        this.ports = ports;
+        this.tables = tables;
+    }
+
+    /**
+     * 同一个端口上 host + context path 相同的 web app 冲突，抛出 IllegalStateException
+     */
+    public static PPVirtualHosts compile(Collection<Binding> bindings) {
+        TreeMap<Integer, Map<String, List<PPWebServletContext>>> byPort = new TreeMap<>();
+        for (Binding binding : bindings) {
+            Map<String, List<PPWebServletContext>> hosts = byPort.computeIfAbsent(binding.port(), p -> new LinkedHashMap<>());
+            PPWebServletContext context = binding.context();
+            List<String> names = context.getVirtualHosts().isEmpty() ? List.of("") : context.getVirtualHosts();
+            for (String name : names) {
+                List<PPWebServletContext> contexts = hosts.computeIfAbsent(normalizeHost(name), h -> new ArrayList<>());
+                for (PPWebServletContext other : contexts) {
+                    if (other.getContextPath().equals(context.getContextPath())) {
+                        throw new IllegalStateException("web app already bound to port " + binding.port()
+                                + " host '" + name + "' context path '" + context.getContextPath() + "'");
+                    }
+                }
+                contexts.add(context);
+            }
+        }
+        int[] ports = new int[byPort.size()];
+        PortTable[] tables = new PortTable[byPort.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Map<String, List<PPWebServletContext>>> entry : byPort.entrySet()) {
+            ports[i] = entry.getKey();
+            tables[i++] = new PortTable(entry.getValue());
+        }
+        return new PPVirtualHosts(List.copyOf(bindings), ports, tables);
+    }
+
+    public List<Binding> bindings() {
+        return bindings;
+    }
+
+    public PPVirtualHosts with(Binding binding) {
+        List<Binding> all = new ArrayList<>(bindings);
+        all.add(binding);
+        return compile(all);
+    }
+
+    public PPVirtualHosts without(int port, PPWebServletContext context) {
+        List<Binding> all = new ArrayList<>(bindings);
+        all.removeIf(binding -> binding.port() == port && binding.context() == context);
+        return all.size() == bindings.size() ? this : compile(all);
+    }
+
+    /**
+     * 用 replacement 替换端口上的 context，用于热部署；context 不存在时抛出 IllegalStateException
+     */
+    public PPVirtualHosts replace(int port, PPWebServletContext context, PPWebServletContext replacement) {
+        List<Binding> all = new ArrayList<>(bindings);
+        int index = -1;
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i).port() == port && all.get(i).context() == context) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            throw new IllegalStateException("web app not bound to port " + port + ": " + context.getContextPath());
+        }
+        all.set(index, new Binding(port, replacement));
+        return compile(all);
+    }
+
+    /**
+     * 按连接的本地端口、Host 头（可以为 null，可以带端口）和请求路径找到 web app，没有时返回 null
+     */
+    public PPWebServletContext resolve(int port, String host, String path) {
+        int index = Arrays.binarySearch(ports, port);
+        return index < 0 ? null : tables[index].resolve(host, path);
+    }
+
+    public static String normalizeHost(String host) {
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private static final class PortTable {
+
+        private final HostTable defaultHost;
+        private final RegionTable<HostTable> hosts;
+
+        private PortTable(Map<String, List<PPWebServletContext>> byHost) {
+            Map<String, HostTable> named = new LinkedHashMap<>();
+            HostTable fallback = null;
+            for (Map.Entry<String, List<PPWebServletContext>> entry : byHost.entrySet()) {
+                HostTable table = new HostTable(entry.getValue());
+                if (entry.getKey().isEmpty()) {
+                    fallback = table;
+                } else {
+                    named.put(entry.getKey(), table);
+                }
+            }
+            defaultHost = fallback;
+            hosts = new RegionTable<>(named, true);
+        }
+
+        private PPWebServletContext resolve(String host, String path) {
+            HostTable table = null;
+            if (null != host && !hosts.isEmpty()) {
+                int start = 0;
+                int end = host.length();
+                while (start < end && host.charAt(start) == ' ') {
+                    start++;
+                }
+                while (end > start && host.charAt(end - 1) == ' ') {
+                    end--;
+                }
+                // IPv6 字面量 [::1]:8080 保留方括号，其他去掉 :port 和结尾的 '.'
+                int colon = start < end && host.charAt(start) == '[' ? host.indexOf(']', start) + 1 : host.indexOf(':', start);
+                if (colon > 0 && colon < end) {
+                    end = colon;
+                }
+                if (end > start && host.charAt(end - 1) == '.') {
+                    end--;
+                }
+                table = hosts.get(host, start, end);
+            }
+            if (null == table) {
+                table = defaultHost;
+            }
+            return null == table ? null : table.resolve(path);
+        }
+    }
+
+    private static final class HostTable {
+
+        private final PPWebServletContext root;
+        private final RegionTable<PPWebServletContext[]> bySegment;
+
+        private HostTable(List<PPWebServletContext> contexts) {
+            PPWebServletContext rootContext = null;
+            Map<String, List<PPWebServletContext>> grouped = new LinkedHashMap<>();
+            for (PPWebServletContext context : contexts) {
+                String contextPath = context.getContextPath();
+                if (contextPath.isEmpty()) {
+                    rootContext = context;
+                    continue;
+                }
+                int slash = contextPath.indexOf('/', 1);
+                String first = contextPath.substring(1, slash < 0 ? contextPath.length() : slash);
+                grouped.computeIfAbsent(first, s -> new ArrayList<>()).add(context);
+            }
+            Map<String, PPWebServletContext[]> sorted = new LinkedHashMap<>();
+            grouped.forEach((first, list) -> {
+                list.sort(Comparator.comparingInt((PPWebServletContext c) -> c.getContextPath().length()).reversed());
+                sorted.put(first, list.toArray(new PPWebServletContext[0]));
+            });
+            root = rootContext;
+            bySegment = new RegionTable<>(sorted, false);
+        }
+
+        private PPWebServletContext resolve(String path) {
+            if (!bySegment.isEmpty() && path.length() > 1 && path.charAt(0) == '/') {
+                int slash = path.indexOf('/', 1);
+                PPWebServletContext[] candidates = bySegment.get(path, 1, slash < 0 ? path.length() : slash);
+                if (null != candidates) {
+                    for (PPWebServletContext context : candidates) {
+                        String contextPath = context.getContextPath();
+                        int length = contextPath.length();
+                        if (path.startsWith(contextPath) && (path.length() == length || path.charAt(length) == '/')) {
+                            return context;
+                        }
+                    }
+                }
+            }
+            return root;
+        }
+    }
+
+    /**
+     * 开放寻址的只读 hash 表，用字符串的一个片段查找，不截取子串
+     */
+    private static final class RegionTable<V> {
+
+        private final String[] keys;
+        private final Object[] values;
+        private final int mask;
+        private final boolean ignoreCase;
+        private final boolean empty;
+
+        private RegionTable(Map<String, V> entries, boolean ignoreCase) {
+            int capacity = Integer.highestOneBit(Math.max(2, entries.size() * 2 - 1)) << 1;
+            this.keys = new String[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+            this.ignoreCase = ignoreCase;
+            this.empty = entries.isEmpty();
+            entries.forEach((key, value) -> {
+                int i = hash(key, 0, key.length(), ignoreCase) & mask;
+                while (null != keys[i]) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = value;
+            });
+        }
+
+        private boolean isEmpty() {
+            return empty;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(String s, int start, int end) {
+            int length = end - start;
+            for (int i = hash(s, start, end, ignoreCase) & mask; ; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (null == key) {
+                    return null;
+                }
+                if (key.length() == length && key.regionMatches(ignoreCase, 0, s, start, length)) {
+                    return (V) values[i];
+                }
+            }
+        }
+
+        private static int hash(String s, int start, int end, boolean ignoreCase) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (ignoreCase && c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                h = 31 * h + c;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -1,27 +1,228 @@
 package one.mini.servlet;
 
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 import one.mini.classloader.ExternalWebClassLoader;
+import one.mini.anno.ReqPathIndex;
+import one.mini.domain.AbstractPPRequest;
+import one.mini.http.PPInFlightLimiter;
 
 import javax.servlet.http.HttpServlet;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+@Slf4j
 @Data
 public class PPWebServletContext {
 
-    private final Map<String, HttpServlet> servletsMap = new ConcurrentHashMap<>(64);
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    /**
+     * web app 的路由，注册时编译，请求按 url 和 method 匹配
+     */
+    private final PPRoutes routes = new PPRoutes();
     private ExternalWebClassLoader cl;
+    /**
+     * 共用端口时的寻址方式：context path 为 "" 或者 "/name" 形式；virtualHosts 为空时属于端口的默认 host
+     */
+    private String contextPath = "";
+    private List<String> virtualHosts = List.of();
+    /**
+     * 这个 web app 同时处理的请求数上限，默认不限制，只受 server 的上限约束
+     */
+    private final PPInFlightLimiter inFlightLimiter = new PPInFlightLimiter(0);
+    /**
+     * 引用计数：请求找到这个 web app 时加一，请求对象回收时减一；最高位表示已经退役，退役之后不再接受新的引用
+     */
+    private final AtomicInteger references = new AtomicInteger();
+    private final ReentrantLock referenceLock = new ReentrantLock();
+    private final Condition unreferenced = referenceLock.newCondition();
 
     public PPWebServletContext(ExternalWebClassLoader cl) {
         this.cl = cl;
     }
 
     public void registerServlet(String url, HttpServlet servlet) {
-        servletsMap.put(url, servlet);
+        routes.add(new PPRoute(url, null, servlet));
+    }
+
+    public void registerServlet(String url, String method, HttpServlet servlet) {
+        routes.add(new PPRoute(url, method, servlet));
+    }
+
+    public void registerRoutes(Collection<PPRoute> routes) {
+        this.routes.addAll(routes);
+    }
+
+    /**
+     * 读取 web app jar 里编译时生成的路由索引，这时只记录类名，servlet 由 {@link #warmUp()} 创建；同一个类的路由共用一个实例。
+     * jar 里没有索引时返回 null
+     */
+    public List<PPRoute> loadRouteIndex() throws IOException {
+        if (null == cl) {
+            return null;
+        }
+        Enumeration<URL> urls = cl.findResources(ReqPathIndex.LOCATION);
+        if (!urls.hasMoreElements()) {
+            return null;
+        }
+        List<PPRoute> indexed = new ArrayList<>();
+        Map<String, PPServletHolder> holders = new HashMap<>();
+        while (urls.hasMoreElements()) {
+            for (ReqPathIndex.Entry entry : ReqPathIndex.read(urls.nextElement())) {
+                PPServletHolder holder = holders.computeIfAbsent(entry.className(), name -> PPServletHolder.lazy(name, cl));
+                indexed.add(new PPRoute(entry.path(), entry.method(), holder));
+            }
+        }
+        return indexed;
+    }
+
+    public void setContextPath(String contextPath) {
+        String path = null == contextPath ? "" : contextPath.trim();
+        if ("/".equals(path)) {
+            path = "";
+        }
+        if (!path.isEmpty() && (path.charAt(0) != '/' || path.endsWith("/") || path.indexOf('*') >= 0)) {
+            throw new IllegalArgumentException("context path must be empty or start with '/' and not end with '/': " + contextPath);
+        }
+        this.contextPath = path;
+    }
+
+    public void setVirtualHosts(List<String> virtualHosts) {
+        this.virtualHosts = List.copyOf(virtualHosts);
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        inFlightLimiter.setLimit(maxInFlightRequests);
     }
 
     public HttpServlet getServlet(String url) {
-        return servletsMap.get(url);
+        return routes.router().match(null, url, new PPRouteMatch());
+    }
+
+    /**
+     * 按请求的 url 和 method 匹配，路径参数等结果记在请求的 PPRouteMatch 上
+     */
+    public HttpServlet route(AbstractPPRequest request) {
+        return routes.router().match(request.getMethod(), request.getUrl(), contextPath.length(), request.getRouteMatch());
+    }
+
+    /**
+     * 对请求可见之前预热：在当前线程上创建并 init 所有还没有创建的 servlet，
+     * 第一个请求不需要在 event loop 上加载类和实例化，init 失败时部署失败。返回 servlet 的数量
+     */
+    public int warmUp() {
+        Set<PPServletHolder> holders = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PPRoute route : routes.routes()) {
+            if (holders.add(route.holder())) {
+                route.holder().get();
+            }
+        }
+        return holders.size();
+    }
+
+    /**
+     * 请求开始使用这个 web app，已经退役时返回 false，调用方应该重新查找
+     */
+    public boolean retain() {
+        while (true) {
+            int current = references.get();
+            if ((current & RETIRED) != 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == RETIRED) {
+            referenceLock.lock();
+            try {
+                unreferenced.signalAll();
+            } finally {
+                referenceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 正在使用这个 web app 的请求数
+     */
+    public int references() {
+        return references.get() & ~RETIRED;
+    }
+
+    /**
+     * 退役：已经从寻址表里移除之后调用，不再接受新的引用，等待已有的引用全部释放；超时返回 false
+     */
+    public boolean retire(long timeoutMillis) throws InterruptedException {
+        references.getAndUpdate(current -> current | RETIRED);
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        referenceLock.lock();
+        try {
+            while (references.get() != RETIRED) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = unreferenced.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            referenceLock.unlock();
+        }
+    }
+
+    /**
+     * 停止 web app：在 web app 的 classloader 下调用每个 servlet 的 destroy，然后关闭 classloader 释放 jar 文件。
+     * 调用前请求应该已经全部处理完
+     */
+    public void destroy() {
+        Set<HttpServlet> servlets = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PPRoute route : routes.routes()) {
+            // 没有创建或者 init 失败的 servlet 不需要 destroy
+            HttpServlet servlet = route.holder().peek();
+            if (null != servlet) {
+                servlets.add(servlet);
+            }
+        }
+        routes.clear();
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(cl);
+        try {
+            for (HttpServlet servlet : servlets) {
+                try {
+                    servlet.destroy();
+                } catch (RuntimeException e) {
+                    log.error("[server] - destroy servlet error: {}", servlet, e);
+                }
+            }
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+        if (null != cl) {
+            try {
+                cl.close();
+            } catch (IOException e) {
+                log.error("[server] - close web app classloader error", e);
+            }
+        }
+        // 不再引用 classloader，残留的 context 引用不会阻止 classloader 被回收
+        cl = null;
     }
 }
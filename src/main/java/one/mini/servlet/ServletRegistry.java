@@ -1,29 +1,113 @@
 package one.mini.servlet;
 
+import one.mini.domain.AbstractPPRequest;
+
 import javax.servlet.http.HttpServlet;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ServletRegistry {
 
-    private static final Map<String, HttpServlet> SERVLET_HOLDER = new ConcurrentHashMap<>(32);
+    /**
+     * 单个 web app 的引擎（BIO、NIO、Netty）共用的路由
+     */
+    private static final PPRoutes ROUTES = new PPRoutes();
 
+    /**
+     * 不限 method
+     */
     public static void registerServlet(String url, HttpServlet servlet) {
-        SERVLET_HOLDER.put(url, servlet);
+        ROUTES.add(new PPRoute(url, null, servlet));
+    }
+
+    public static void registerServlet(String url, String method, HttpServlet servlet) {
+        ROUTES.add(new PPRoute(url, method, servlet));
+    }
+
+    /**
+     * 批量注册只编译一次路由表
+     */
+    public static void registerRoutes(Collection<PPRoute> routes) {
+        ROUTES.addAll(routes);
+    }
+
+    public static void unregisterRoutes(Collection<PPRoute> routes) {
+        ROUTES.removeAll(routes);
+    }
+
+    /**
+     * url 仍然映射到这个 servlet 时才移除
+     */
+    public static void unregisterServlet(String url, HttpServlet servlet) {
+        ROUTES.remove(url, servlet);
     }
 
+    /**
+     * 不检查 method，只按 url 匹配
+     */
     public static HttpServlet getServlet(String url) {
-        return SERVLET_HOLDER.get(url);
+        return ROUTES.router().match(null, url, new PPRouteMatch());
     }
 
-    private static final Map<Integer, PPWebServletContext> WEB_CONTEXT_HOLDER = new ConcurrentHashMap<>(64);
+    /**
+     * 按请求的 url 和 method 匹配，路径参数等结果记在请求的 PPRouteMatch 上
+     */
+    public static HttpServlet route(AbstractPPRequest request) {
+        return ROUTES.router().match(request.getMethod(), request.getUrl(), request.getRouteMatch());
+    }
+
+    /**
+     * 多 web app 容器的寻址表：端口 + Host + context path，修改时重新编译后整体替换
+     */
+    private static final ReentrantLock WEB_CONTEXT_LOCK = new ReentrantLock();
+    private static volatile PPVirtualHosts virtualHosts = PPVirtualHosts.EMPTY;
 
+    /**
+     * 端口上默认 host 的根 web app
+     */
     public static PPWebServletContext getWebContext(Integer port) {
-        return WEB_CONTEXT_HOLDER.get(port);
+        return virtualHosts.resolve(port, null, "/");
+    }
+
+    /**
+     * 按连接的本地端口、Host 头和请求路径找到 web app，没有时返回 null
+     */
+    public static PPWebServletContext resolveWebContext(int port, String host, String path) {
+        return virtualHosts.resolve(port, host, path);
     }
 
+    /**
+     * 和端口上已有的 web app 的 host + context path 冲突时抛出 IllegalStateException
+     */
     public static void addWebContext(Integer port, PPWebServletContext context) {
-        WEB_CONTEXT_HOLDER.put(port, context);
+        WEB_CONTEXT_LOCK.lock();
+        try {
+            virtualHosts = virtualHosts.with(new PPVirtualHosts.Binding(port, context));
+        } finally {
+            WEB_CONTEXT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * 热部署：一次 volatile 写入把端口上的 context 整体换成 replacement，之后的请求都路由到新的 context，
+     * 已经找到旧 context 的请求继续在旧的上面处理完
+     */
+    public static void replaceWebContext(int port, PPWebServletContext context, PPWebServletContext replacement) {
+        WEB_CONTEXT_LOCK.lock();
+        try {
+            virtualHosts = virtualHosts.replace(port, context, replacement);
+        } finally {
+            WEB_CONTEXT_LOCK.unlock();
+        }
+    }
+
+    public static void removeWebContext(Integer port, PPWebServletContext context) {
+        WEB_CONTEXT_LOCK.lock();
+        try {
+            virtualHosts = virtualHosts.without(port, context);
+        } finally {
+            WEB_CONTEXT_LOCK.unlock();
+        }
     }
 
 }
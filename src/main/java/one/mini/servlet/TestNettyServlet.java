@@ -1,6 +1,5 @@
 package one.mini.servlet;
 
-import one.mini.domain.netty.PPNettyResponse;
 import one.mini.utils.InnerHTMLUtil;
 
 import javax.servlet.http.HttpServlet;
@@ -10,14 +9,12 @@ import javax.servlet.http.HttpServletResponse;
 public class TestNettyServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
-        PPNettyResponse response = (PPNettyResponse) resp;
-        response.send(InnerHTMLUtil.textResponse("GET response from mini-puppy base on netty"));
+        InnerHTMLUtil.textResponse(resp, "GET response from mini-puppy base on netty");
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
-        PPNettyResponse response = (PPNettyResponse) resp;
-        response.send(InnerHTMLUtil.textResponse("POST response from mini-puppy base on netty"));
+        InnerHTMLUtil.textResponse(resp, "POST response from mini-puppy base on netty");
     }
 
     @Override
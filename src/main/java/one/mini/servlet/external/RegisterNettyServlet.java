@@ -2,7 +2,6 @@ package one.mini.servlet.external;
 
 import one.mini.anno.ReqPath;
 import one.mini.domain.netty.PPNettyRequest;
-import one.mini.domain.netty.PPNettyResponse;
 import one.mini.utils.InnerHTMLUtil;
 
 import javax.servlet.http.HttpServlet;
@@ -13,8 +12,7 @@ import javax.servlet.http.HttpServletResponse;
 public class RegisterNettyServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
-        PPNettyResponse response = (PPNettyResponse) resp;
-        response.send(InnerHTMLUtil.textResponse("GET response from mini-puppy base on netty RegisterNettyServlet " + ((PPNettyRequest) req).getPort()));
+        InnerHTMLUtil.textResponse(resp, "GET response from mini-puppy base on netty RegisterNettyServlet " + ((PPNettyRequest) req).getPort());
     }
 
     @Override
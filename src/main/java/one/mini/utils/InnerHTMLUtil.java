@@ -1,25 +1,54 @@
 package one.mini.utils;
 
+import one.mini.http.PPConstantResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 public class InnerHTMLUtil {
 
-    public static String textResponse(String content) {
-        String responseFormat = """
-                        HTTP/1.1 200 OK\r
-                        Content-Type: text/plain\r
-                        \r
-                        %s
-                        """;
-        return String.format(responseFormat, content);
+    /**
+     * 欢迎页和 404 页面内容固定，启动时编码一次，之后每次直接发送
+     */
+    public static final PPConstantResponse WELCOME_PAGE = PPConstantResponse.html(200, "<h1>Welcome - puppy-server base on netty-4.2-final</h1>");
+    public static final PPConstantResponse NOT_FOUND_PAGE = PPConstantResponse.html(404, "<h1>404 Not Found</h1>");
+    /**
+     * 过载时的快速拒绝，告诉客户端 1 秒后重试
+     */
+    public static final PPConstantResponse SERVICE_UNAVAILABLE_PAGE = PPConstantResponse.html(503, "<h1>503 Service Unavailable</h1>", "Retry-After: 1");
+    /**
+     * 异步请求超时时引擎不能再用 servlet 手里的响应对象，直接发送这个页面
+     */
+    public static final PPConstantResponse INTERNAL_ERROR_PAGE = PPConstantResponse.html(500, "<h1>500 Internal Server Error</h1>");
+
+    /**
+     * 路径有路由但不接受请求的 method，Allow 列出接受的 method
+     */
+    public static void methodNotAllowed(HttpServletResponse resp, String allow) {
+        resp.setStatus(405);
+        resp.setHeader("Allow", allow);
+        htmlResponse(resp, "<h1>405 Method Not Allowed</h1>");
+    }
+
+    /**
+     * 只设置 Content-Type 和 body，状态行、Content-Length 由响应对象在提交时编码
+     */
+    public static void textResponse(HttpServletResponse resp, String content) {
+        write(resp, "text/plain", content);
+    }
+
+    public static void htmlResponse(HttpServletResponse resp, String content) {
+        write(resp, "text/html", content);
     }
 
-    public static String htmlResponse(String content) {
-        String responseFormat = """
-                        HTTP/1.1 200 OK\r
-                        Content-Type: text/html\r
-                        \r
-                        %s
-                        """;
-        return String.format(responseFormat, content);
+    private static void write(HttpServletResponse resp, String contentType, String content) {
+        resp.setContentType(contentType);
+        try {
+            resp.getWriter().write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-}
\ No newline at end of file
+}